@@ -0,0 +1,139 @@
+package com.googlecode.dex2jar.reader.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Stack;
+
+/**
+ * Little-endian {@link DataIn} over a {@link ByteBuffer}, e.g. a memory-mapped dex file.
+ * Reads do not copy the underlying data except for {@link #readBytes(int)}.
+ */
+public class ByteBufferDataIn implements DataIn {
+
+    private final ByteBuffer buffer;
+    private Stack<Integer> stack = new Stack<Integer>();
+
+    public ByteBufferDataIn(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.position(0);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    public void move(int absOffset) {
+        buffer.position(absOffset);
+    }
+
+    @Override
+    public void pop() {
+        buffer.position(stack.pop());
+    }
+
+    @Override
+    public void push() {
+        stack.push(buffer.position());
+    }
+
+    @Override
+    public void pushMove(int absOffset) {
+        this.push();
+        this.move(absOffset);
+    }
+
+    @Override
+    public int readByte() {
+        return buffer.get();
+    }
+
+    @Override
+    public byte[] readBytes(int size) {
+        byte[] data = new byte[size];
+        buffer.get(data);
+        return data;
+    }
+
+    @Override
+    public int readIntx() {
+        return buffer.getInt();
+    }
+
+    @Override
+    public int readUIntx() {
+        return buffer.getInt();
+    }
+
+    @Override
+    public int readShortx() {
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUShortx() {
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    @Override
+    public long readLeb128() {
+        int bitpos = 0;
+        long vln = 0L;
+        do {
+            int inp = readUByte();
+            vln |= ((long) (inp & 0x7F)) << bitpos;
+            bitpos += 7;
+            if ((inp & 0x80) == 0) {
+                break;
+            }
+        } while (true);
+        if (((1L << (bitpos - 1)) & vln) != 0) {
+            vln -= (1L << bitpos);
+        }
+        return vln;
+    }
+
+    @Override
+    public int readUByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public long readULeb128() {
+        long value = 0;
+        int count = 0;
+        int b = readUByte();
+        while ((b & 0x80) != 0) {
+            value |= ((long) (b & 0x7f)) << count;
+            count += 7;
+            b = readUByte();
+        }
+        value |= ((long) (b & 0x7f)) << count;
+        return value;
+    }
+
+    @Override
+    public void skip(int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    /**
+     * Absolute little-endian read that does not change the current position
+     */
+    public int getUIntx(int absOffset) {
+        return buffer.getInt(absOffset);
+    }
+
+    public int getUShortx(int absOffset) {
+        return buffer.getShort(absOffset) & 0xFFFF;
+    }
+
+    public int getUByte(int absOffset) {
+        return buffer.get(absOffset) & 0xFF;
+    }
+
+    public int size() {
+        return buffer.limit();
+    }
+}
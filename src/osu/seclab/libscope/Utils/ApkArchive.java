@@ -0,0 +1,101 @@
+package osu.seclab.libscope.Utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Handle to an opened apk. The zip central directory is read once and then serves
+ * the manifest, the dex files and size queries to all analysis stages.
+ */
+public class ApkArchive implements Closeable {
+    public static final String MANIFEST_FILENAME = "AndroidManifest.xml";
+
+    private static final int DEX_HEADER_SIZE = 0x70;
+    private static final int DEX_CLASS_DEFS_SIZE_OFFSET = 0x60;
+
+    private final File apkFile;
+    private final ZipDirectory zip;
+    private final List<ZipDirectory.Entry> dexEntries = new ArrayList<ZipDirectory.Entry>();
+
+    public ApkArchive(File apkFile) throws IOException {
+        this.apkFile = apkFile;
+        this.zip = new ZipDirectory(apkFile);
+
+        for (ZipDirectory.Entry entry: zip.getEntries()) {
+            if (ApkUtils.isDexFile(entry.name))
+                dexEntries.add(entry);
+        }
+
+        // the runtime loads classes.dex, classes2.dex, ... in numeric order, independent of the zip order
+        Collections.sort(dexEntries, new Comparator<ZipDirectory.Entry>() {
+            @Override
+            public int compare(ZipDirectory.Entry e1, ZipDirectory.Entry e2) {
+                return Integer.compare(ApkUtils.getDexIndex(e1.name), ApkUtils.getDexIndex(e2.name));
+            }
+        });
+    }
+
+    public File getFile() {
+        return apkFile;
+    }
+
+    /**
+     * @return  the binary AndroidManifest.xml or null if the apk does not contain one
+     */
+    public InputStream getManifest() throws IOException {
+        ZipDirectory.Entry entry = zip.getEntry(MANIFEST_FILENAME);
+        return entry == null? null : zip.getInputStream(entry);
+    }
+
+    /**
+     * @return  all classes*.dex entries in load order
+     */
+    public List<ZipDirectory.Entry> getDexEntries() {
+        return dexEntries;
+    }
+
+    public int getNumberOfDexFiles() {
+        return dexEntries.size();
+    }
+
+    public boolean isMultiDex() {
+        return dexEntries.size() > 1;
+    }
+
+    /**
+     * Reads the number of class definitions from the dex header without reading the rest of the dex file
+     */
+    public int getDexClassCount(ZipDirectory.Entry dexEntry) throws IOException {
+        ByteBuffer header = zip.getData(dexEntry, DEX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < DEX_HEADER_SIZE)
+            throw new IOException("Truncated dex header in " + dexEntry.name);
+        return header.getInt(header.position() + DEX_CLASS_DEFS_SIZE_OFFSET);
+    }
+
+    /**
+     * Provides the content of a single dex entry. Safe to call concurrently for different entries.
+     */
+    public ByteBuffer readDexFile(ZipDirectory.Entry dexEntry) throws IOException {
+        return zip.getData(dexEntry);
+    }
+
+    /**
+     * @return  the summed (un)compressed size of all classes*.dex files
+     */
+    public long getSizeOfDexFiles(boolean uncompressedSize) {
+        long size = 0;
+        for (ZipDirectory.Entry entry: dexEntries)
+            size += uncompressedSize? entry.size : entry.compressedSize;
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
@@ -14,116 +14,24 @@
 
 package osu.seclab.libscope.Utils;
 
-import java.io.*;
-import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ApkUtils {
-	public static boolean isMultiDexApk(File apkFile) throws ZipException, IOException {
-		ZipFile f = new ZipFile(apkFile);
-		boolean hasClasses2Dex = f.getEntry("classes2.dex") != null;
-		f.close();
-		return hasClasses2Dex;		
-	}
-	
-	
-	public static Set<ZipEntry> getClassesDex(File apkFile) throws ZipException, IOException {
-		HashSet<ZipEntry> result = new HashSet<ZipEntry>();
-		ZipFile f = new ZipFile(apkFile);
-		
-	    final Enumeration<? extends ZipEntry> entries = f.entries();
-	    while (entries.hasMoreElements()) {
-	        final ZipEntry entry = entries.nextElement();
-	        if (entry.getName().matches("classes[1-9]{0,1}\\.dex"))
-	        	result.add(entry);
-	    }
-	    
-	    // TODO: unzip those entries to tmp dir and return set<Files>
+	// classes.dex, classes2.dex, ..., classes10.dex, ...
+	public static final Pattern DEX_FILE_PATTERN = Pattern.compile("classes([1-9][0-9]*)?\\.dex");
 
-	    f.close();
-	    return result;
+	public static boolean isDexFile(String entryName) {
+		return DEX_FILE_PATTERN.matcher(entryName).matches();
 	}
-	
-	
-
-    /**
-     * Extracts a zip file specified by the zipFilePath to a directory specified by
-     * destDirectory (will be created if does not exists)
-     * @param apkFile
-     * @param tmpDir
-     * @throws IOException
-     */
-    public static List<File> unzipDexFiles(File apkFile, File tmpDir) throws IOException {
-        if (!tmpDir.exists()) {
-            tmpDir.mkdir();
-        }
-        ZipInputStream zipIn = new ZipInputStream(new FileInputStream(apkFile));
-        ZipEntry entry = zipIn.getNextEntry();
-        
-        // iterates over entries in the apk file
-        List<File> dexFiles = new ArrayList<File>();
-        while (entry != null) {
-            File out = new File(tmpDir + File.separator + entry.getName());
-            if (!entry.isDirectory()) {
-    	        // match classes*.dex
-            	if (entry.getName().matches("classes[1-9]{0,1}\\.dex")) {
-    	        	extractFile(zipIn, out);
-    	        	dexFiles.add(out);
-    	        }
-            }
 
-            zipIn.closeEntry();
-            entry = zipIn.getNextEntry();
-        }
-
-        zipIn.close();
-        return dexFiles;
-    }
-    
-    
-    public static long getSizeOfClassesDex(File apkFile, boolean uncompressedSize) {
- 	   ZipFile apkZipFile = null; 
- 	   try {
-             apkZipFile = new ZipFile(apkFile.getAbsolutePath());
-             Enumeration<? extends ZipEntry> zipEntries = apkZipFile.entries();
-  
-             while (zipEntries.hasMoreElements()) {
-             	ZipEntry zipEntry = (ZipEntry) zipEntries.nextElement();
-                 if (zipEntry.getName().equals("classes.dex"))
-                 	return uncompressedSize? zipEntry.getSize() : zipEntry.getCompressedSize();
-             }
-         } catch (IOException ex) {
-             ex.printStackTrace();
-         } finally {
-         	if (apkZipFile != null)
- 				try {
- 					apkZipFile.close();
- 				} catch (IOException e) {}
-         }
-         return -1;
-     }
-    
-    
-    /**
-     * Extracts a zip entry (file entry)
-     * @param zipIn
-     * @param outFile
-     * @throws IOException
-     */
-    private static final int BUFFER_SIZE = 4096;
-    private static void extractFile(ZipInputStream zipIn, File outFile) throws IOException {
-        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(outFile));
-        byte[] bytesIn = new byte[BUFFER_SIZE];
-        
-        int read = 0;
-        while ((read = zipIn.read(bytesIn)) != -1) {
-            bos.write(bytesIn, 0, read);
-        }
-        
-        bos.close();
-    }
-    
+	/**
+	 * @return  the dex index of a classes*.dex entry, i.e. 1 for classes.dex and N for classesN.dex
+	 */
+	public static int getDexIndex(String entryName) {
+		Matcher m = DEX_FILE_PATTERN.matcher(entryName);
+		if (!m.matches())
+			return -1;
+		return m.group(1) == null? 1 : Integer.parseInt(m.group(1));
+	}
 }
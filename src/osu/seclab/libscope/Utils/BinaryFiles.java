@@ -0,0 +1,76 @@
+package osu.seclab.libscope.Utils;
+
+import java.io.*;
+import java.util.Map;
+
+/**
+ * Helpers for the binary index files (catalogs, snapshot) that are written once and loaded by later analyses
+ */
+public class BinaryFiles {
+
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public interface Loader<T> {
+        /**
+         * @return  the loaded file or null if it does not exist
+         */
+        T load(File file) throws IOException;
+    }
+
+    /**
+     * Writes to a temporary file next to target that is then renamed, so that concurrent processes never see a partial file
+     */
+    public static void writeAtomically(File target, Writer writer) throws IOException {
+        File tmpFile = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                writer.write(out);
+            }
+            if (!tmpFile.renameTo(target))
+                throw new IOException("Could not write " + target);
+        } finally {
+            tmpFile.delete();  // no-op after a successful rename
+        }
+    }
+
+    /**
+     * @return  the id of s in a string table that assigns consecutive ids in insertion order
+     */
+    public static int stringId(Map<String, Integer> stringIds, String s) {
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = stringIds.size();
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * Process-wide instance of a file that is loaded on first use. A missing file is only checked once,
+     * a failed load is retried on the next call.
+     */
+    public static class LazyFile<T> {
+        private final File file;
+        private final Loader<T> loader;
+        private T instance;
+        private boolean loaded = false;
+
+        public LazyFile(File file, Loader<T> loader) {
+            this.file = file;
+            this.loader = loader;
+        }
+
+        /**
+         * @return  the loaded instance or null if the file does not exist
+         */
+        public synchronized T get() throws IOException {
+            if (!loaded) {
+                instance = loader.load(file);
+                loaded = true;
+            }
+            return instance;
+        }
+    }
+}
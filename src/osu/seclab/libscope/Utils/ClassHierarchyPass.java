@@ -0,0 +1,147 @@
+package osu.seclab.libscope.Utils;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A single pass over the app classes of a class hierarchy that feeds all registered visitors, so that
+ * the app classes are determined once instead of once per analysis stage.
+ * The pass can be partitioned: the app classes are split into contiguous ranges that are visited concurrently.
+ * Every visitor that supports it ({@link ClassVisitor#fork()}) gets a fork per additional range, the forks are joined
+ * back in class order. Visitors that depend on the class order see all classes on a single thread.
+ */
+public class ClassHierarchyPass {
+
+    // ranges with fewer classes are not worth a thread
+    private static final int MIN_PARTITION_SIZE = 1000;
+
+    public interface ClassVisitor {
+        void visit(IClass clazz);
+
+        /**
+         * @return  a new visitor of the same kind for another range of classes, or null if this visitor
+         *          has to see all classes in order
+         */
+        default ClassVisitor fork() {
+            return null;
+        }
+
+        /**
+         * Adds the results of a visitor returned by {@link #fork()}. Forks are joined in the order of their ranges.
+         */
+        default void join(ClassVisitor fork) {
+        }
+    }
+
+    private final List<ClassVisitor> visitors = new ArrayList<>();
+
+    public ClassHierarchyPass register(ClassVisitor visitor) {
+        visitors.add(visitor);
+        return this;
+    }
+
+    public void run(IClassHierarchy cha, Map<IClass, Boolean> appClassCache) {
+        run(cha, appClassCache, 1);
+    }
+
+    /**
+     * Visits every app class of cha with every registered visitor
+     * @param appClassCache  see {@link WalaUtils#isAppClass(IClass, Map)}
+     * @param parallelism  maximum number of threads, 1 runs the pass on the calling thread
+     */
+    public void run(IClassHierarchy cha, Map<IClass, Boolean> appClassCache, int parallelism) {
+        List<IClass> appClasses = new ArrayList<>();
+        for (IClass clazz: cha) {
+            if (WalaUtils.isAppClass(clazz, appClassCache))
+                appClasses.add(clazz);
+        }
+
+        int numPartitions = Math.min(parallelism, appClasses.size() / MIN_PARTITION_SIZE);
+        List<ClassVisitor> sequential = new ArrayList<>();
+        List<List<ClassVisitor>> partitions = new ArrayList<>();
+        for (int p = 0; p < Math.max(numPartitions, 1); p++)
+            partitions.add(new ArrayList<ClassVisitor>());
+
+        for (ClassVisitor visitor: visitors) {
+            List<ClassVisitor> forks = new ArrayList<>();
+            for (int p = 1; p < numPartitions; p++) {
+                ClassVisitor fork = visitor.fork();
+                if (fork == null)
+                    break;
+                forks.add(fork);
+            }
+
+            if (numPartitions > 1 && forks.size() == numPartitions - 1) {
+                partitions.get(0).add(visitor);
+                for (int p = 1; p < numPartitions; p++)
+                    partitions.get(p).add(forks.get(p - 1));
+            } else {
+                sequential.add(visitor);
+            }
+        }
+
+        if (numPartitions <= 1) {
+            sequential.addAll(partitions.get(0));
+            visit(appClasses, sequential);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        if (!sequential.isEmpty())
+            tasks.add(task(appClasses, sequential));
+        for (int p = 0; p < numPartitions; p++) {
+            int from = (int) ((long) appClasses.size() * p / numPartitions);
+            int to = (int) ((long) appClasses.size() * (p + 1) / numPartitions);
+            tasks.add(task(appClasses.subList(from, to), partitions.get(p)));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            for (Future<Void> future: pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Class hierarchy pass was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<ClassVisitor> joined = partitions.get(0);
+        for (int p = 1; p < numPartitions; p++) {
+            for (int i = 0; i < joined.size(); i++)
+                joined.get(i).join(partitions.get(p).get(i));
+        }
+    }
+
+    private static Callable<Void> task(final List<IClass> classes, final List<ClassVisitor> visitors) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                visit(classes, visitors);
+                return null;
+            }
+        };
+    }
+
+    private static void visit(List<IClass> classes, List<ClassVisitor> visitors) {
+        for (IClass clazz: classes) {
+            for (ClassVisitor visitor: visitors)
+                visitor.visit(clazz);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package osu.seclab.libscope.Utils;
+
+/**
+ * 64-bit FNV-1a hash over the UTF-16 chars of strings, used for the fingerprints of the library catalogs.
+ * Hashes can be chained by passing the previous hash as seed.
+ */
+public class Fnv1a {
+    public static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    public static long hash(CharSequence s) {
+        return hash(OFFSET_BASIS, s);
+    }
+
+    public static long hash(long hash, CharSequence s) {
+        for (int i = 0; i < s.length(); i++)
+            hash = hash(hash, s.charAt(i));
+        return hash;
+    }
+
+    public static long hash(long hash, char c) {
+        return (hash ^ c) * PRIME;
+    }
+}
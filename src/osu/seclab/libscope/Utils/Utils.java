@@ -17,6 +17,9 @@ package osu.seclab.libscope.Utils;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOCase;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
 import osu.seclab.libscope.stats.AppStats;
 import java.io.*;
 import java.util.*;
@@ -379,7 +382,11 @@ public class Utils {
 		         // This method will returns matched file as java.io.File
 		         boolean recursive = true;
 
-		         Collection<File> foundFiles = FileUtils.listFiles(dir, extensions, recursive);
+		         // extensions are matched case-insensitively, e.g. app.APK
+		         String[] suffixes = new String[extensions.length];
+		         for (int i = 0; i < extensions.length; i++)
+		             suffixes[i] = "." + extensions[i];
+		         Collection<File> foundFiles = FileUtils.listFiles(dir, new SuffixFileFilter(suffixes, IOCase.INSENSITIVE), recursive? TrueFileFilter.INSTANCE : null);
 
 		         for (Iterator<File> iterator = foundFiles.iterator(); iterator.hasNext();) {
 		             files.add(iterator.next());
@@ -3,13 +3,13 @@ package osu.seclab.libscope.Utils;
 import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.classLoader.IMethod;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.TypeName;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class WalaUtils {
 
@@ -18,98 +18,184 @@ public class WalaUtils {
     public static final String WALA_FAKE_ROOT_CLASS = "com.ibm.wala.FakeRootClass";
 
     public static JSONObject getChaStats(IClassHierarchy cha) {
-        TreeSet<String> publicMethods = new TreeSet<>();
-        int clCount = 0;
-        int innerClCount = 0;
-        int publicClCount = 0;
-        int miscMethodCount = 0;
-
-        HashMap<AndroidClassType, Integer> clazzTypes = new HashMap<>();
-        for (AndroidClassType t: AndroidClassType.values())
-            clazzTypes.put(t, 0);
-
-        for (IClass clazz: cha) {
-            if (isAppClass(clazz)) {
-                AndroidClassType type = classifyClass(clazz);
-                clazzTypes.put(type, clazzTypes.get(type)+1);
+        return getChaStats(cha, false);
+    }
+
+    public static JSONObject getChaStats(IClassHierarchy cha, boolean exportSignatures) {
+        return getChaStats(cha, exportSignatures, new HashMap<IClass, Boolean>());
+    }
+
+    /**
+     * @param exportSignatures  if true, the sorted signatures of all public methods are included as "publicMethodSignatures".
+     *                          Otherwise methods are only counted (each declared method is visited once, so no deduplication is needed)
+     * @param appClassCache  see {@link #isAppClass(IClass, Map)}
+     */
+    public static JSONObject getChaStats(IClassHierarchy cha, boolean exportSignatures, Map<IClass, Boolean> appClassCache) {
+        return getChaStats(cha, exportSignatures, appClassCache, 1);
+    }
+
+    /**
+     * Like {@link #getChaStats(IClassHierarchy, boolean, Map)}, but the classes are split across up to
+     * parallelism threads. The result is identical to the sequential one.
+     */
+    public static JSONObject getChaStats(IClassHierarchy cha, boolean exportSignatures, Map<IClass, Boolean> appClassCache, int parallelism) {
+        ChaStats stats = new ChaStats(exportSignatures);
+        new ClassHierarchyPass().register(stats).run(cha, appClassCache, parallelism);
+        stats.log();
+        return stats.toJson();
+    }
+
+    /**
+     * Class and method counts of the app classes, collected as part of a {@link ClassHierarchyPass}.
+     * Forks count their range of classes with their own counters, histogram and classification cache. All results are
+     * sums or sorted sets, so joining the forks yields exactly the sequential result.
+     */
+    public static class ChaStats implements ClassHierarchyPass.ClassVisitor {
+        private final boolean exportSignatures;
+        private final TreeSet<String> publicMethods;
+        private int publicMethodCount = 0;
+        private int clCount = 0;
+        private int innerClCount = 0;
+        private int publicClCount = 0;
+        private int miscMethodCount = 0;
+
+        private final HashMap<AndroidClassType, Integer> clazzTypes = new HashMap<>();
+        private final Map<IClass, AndroidClassType> clazzTypeCache = new HashMap<>();
+
+        /**
+         * @param exportSignatures  see {@link #getChaStats(IClassHierarchy, boolean, Map)}
+         */
+        public ChaStats(boolean exportSignatures) {
+            this.exportSignatures = exportSignatures;
+            this.publicMethods = exportSignatures? new TreeSet<String>() : null;
+            for (AndroidClassType t: AndroidClassType.values())
+                clazzTypes.put(t, 0);
+        }
+
+        @Override
+        public void visit(IClass clazz) {
+            AndroidClassType type = classifyClass(clazz, clazzTypeCache);
+            clazzTypes.put(type, clazzTypes.get(type)+1);
+            if (logger.isTraceEnabled())
                 logger.trace("App Class: " + simpleName(clazz) + "  (" + type + ")");
-                clCount++;
-                if (isInnerClass(clazz)) {
-                    innerClCount++;
-                }
-                if (clazz.isPublic()) {
-                    publicClCount++;
-                }
-                for (IMethod im: clazz.getDeclaredMethods()) {
-                    if (im.isBridge() || im.isSynthetic()) continue;
+            clCount++;
+            if (isInnerClass(clazz.getName().toString())) {
+                innerClCount++;
+            }
+            if (clazz.isPublic()) {
+                publicClCount++;
+            }
+            for (IMethod im: clazz.getDeclaredMethods()) {
+                if (im.isBridge() || im.isSynthetic()) continue;
 
-                    if (im.isPublic()) {
+                if (im.isPublic()) {
+                    publicMethodCount++;
+                    if (exportSignatures)
                         publicMethods.add(im.getSignature());
-                    } else {
-                        miscMethodCount++;
-                    }
+                } else {
+                    miscMethodCount++;
                 }
             }
         }
 
-        logger.info("");
-        logger.info("= ClassHierarchy Stats =");
-        logger.info(Utils.INDENT + "# of classes: " + clCount);
-        logger.info(Utils.INDENT + "# thereof inner classes: " + innerClCount);
-        logger.info(Utils.INDENT + "# thereof public classes: " + publicClCount);
-        for (AndroidClassType t: AndroidClassType.values())
-            logger.info(Utils.INDENT2 + t + " : " + clazzTypes.get(t));
-        logger.info(Utils.INDENT + "# methods: " + (publicMethods.size() + miscMethodCount));
-        logger.info(Utils.INDENT2 + "# of publicly accessible methods: " + publicMethods.size());
-        logger.info(Utils.INDENT2 + "# of non-accessible methods: " + miscMethodCount);
-        logger.info("");
-
-        JSONObject js = new JSONObject();
-        js.put("numClasses", clCount);
-        js.put("numInnerClasses", innerClCount);
-        js.put("numPublicClasses", publicClCount);
-        js.put("numMethods", (publicMethods.size() + miscMethodCount));
-        js.put("numPublicMethods", publicMethods.size());
-        js.put("numMiscMethods", miscMethodCount);
-        return js;
-    }
-
-    private static AndroidClassType classifyClass(IClass clazz) {
-        for (IClass c : getSuperClassesIncluding(clazz)) {
-            String className = simpleName(c);
-            switch (className) {
-                case AndroidEntryPointConstants.ACTIVITYCLASS:
-                    return AndroidClassType.Activity;
-                case AndroidEntryPointConstants.FRAGMENTCLASS:
-                case AndroidEntryPointConstants.SUPPORTFRAGMENTCLASS:
-                case AndroidEntryPointConstants.ANDROIDX_FRAGMENT:
-                    return AndroidClassType.Fragment;
-                case AndroidEntryPointConstants.SERVICECLASS:
-                    return AndroidClassType.Service;
-                case AndroidEntryPointConstants.BROADCASTRECEIVERCLASS:
-                    return AndroidClassType.BroadcastReceiver;
-                case AndroidEntryPointConstants.CONTENTPROVIDERCLASS:
-                    return AndroidClassType.ContentProvider;
-                case AndroidEntryPointConstants.APPLICATIONCLASS:
-                    return AndroidClassType.Application;
-                case AndroidEntryPointConstants.ASYNCTASKCLASS:
-                    return AndroidClassType.AsyncTask;
-                case AndroidEntryPointConstants.THREADCLASS:
-                    return AndroidClassType.Thread;
-                case AndroidEntryPointConstants.RUNNABLECLASS:
-                    return AndroidClassType.Runnable;
-                case AndroidEntryPointConstants.HANDLERCLASS:
-                    return AndroidClassType.Handler;
-                case AndroidEntryPointConstants.VIEWGROUP_TYPE:
-                    return AndroidClassType.LayoutContainer;
-                case AndroidEntryPointConstants.VIEW_TYPE:
-                case AndroidEntryPointConstants.WEBVIEW_TYPE:
-                    return AndroidClassType.View;
-                default:
-                    return AndroidClassType.Plain;
+        @Override
+        public ClassHierarchyPass.ClassVisitor fork() {
+            return new ChaStats(exportSignatures);
+        }
+
+        @Override
+        public void join(ClassHierarchyPass.ClassVisitor fork) {
+            ChaStats other = (ChaStats) fork;
+            publicMethodCount += other.publicMethodCount;
+            clCount += other.clCount;
+            innerClCount += other.innerClCount;
+            publicClCount += other.publicClCount;
+            miscMethodCount += other.miscMethodCount;
+            for (AndroidClassType t: AndroidClassType.values())
+                clazzTypes.put(t, clazzTypes.get(t) + other.clazzTypes.get(t));
+            if (exportSignatures)
+                publicMethods.addAll(other.publicMethods);
+        }
+
+        public void log() {
+            logger.info("");
+            logger.info("= ClassHierarchy Stats =");
+            logger.info(Utils.INDENT + "# of classes: " + clCount);
+            logger.info(Utils.INDENT + "# thereof inner classes: " + innerClCount);
+            logger.info(Utils.INDENT + "# thereof public classes: " + publicClCount);
+            for (AndroidClassType t: AndroidClassType.values())
+                logger.info(Utils.INDENT2 + t + " : " + clazzTypes.get(t));
+            logger.info(Utils.INDENT + "# methods: " + (publicMethodCount + miscMethodCount));
+            logger.info(Utils.INDENT2 + "# of publicly accessible methods: " + publicMethodCount);
+            logger.info(Utils.INDENT2 + "# of non-accessible methods: " + miscMethodCount);
+            logger.info("");
+        }
+
+        public JSONObject toJson() {
+            JSONObject js = new JSONObject();
+            js.put("numClasses", clCount);
+            js.put("numInnerClasses", innerClCount);
+            js.put("numPublicClasses", publicClCount);
+            js.put("numMethods", (publicMethodCount + miscMethodCount));
+            js.put("numPublicMethods", publicMethodCount);
+            js.put("numMiscMethods", miscMethodCount);
+            if (exportSignatures)
+                js.put("publicMethodSignatures", new JSONArray(publicMethods));
+            return js;
+        }
+    }
+
+    // well-known Android/Java supertypes, keyed by their (canonical) WALA type names
+    private static final Map<TypeName, AndroidClassType> androidClassTypes = new HashMap<>();
+    static {
+        putClassType(AndroidEntryPointConstants.ACTIVITYCLASS, AndroidClassType.Activity);
+        putClassType(AndroidEntryPointConstants.FRAGMENTCLASS, AndroidClassType.Fragment);
+        putClassType(AndroidEntryPointConstants.SUPPORTFRAGMENTCLASS, AndroidClassType.Fragment);
+        putClassType(AndroidEntryPointConstants.ANDROIDX_FRAGMENT, AndroidClassType.Fragment);
+        putClassType(AndroidEntryPointConstants.SERVICECLASS, AndroidClassType.Service);
+        putClassType(AndroidEntryPointConstants.BROADCASTRECEIVERCLASS, AndroidClassType.BroadcastReceiver);
+        putClassType(AndroidEntryPointConstants.CONTENTPROVIDERCLASS, AndroidClassType.ContentProvider);
+        putClassType(AndroidEntryPointConstants.APPLICATIONCLASS, AndroidClassType.Application);
+        putClassType(AndroidEntryPointConstants.ASYNCTASKCLASS, AndroidClassType.AsyncTask);
+        putClassType(AndroidEntryPointConstants.THREADCLASS, AndroidClassType.Thread);
+        putClassType(AndroidEntryPointConstants.RUNNABLECLASS, AndroidClassType.Runnable);
+        putClassType(AndroidEntryPointConstants.HANDLERCLASS, AndroidClassType.Handler);
+        putClassType(AndroidEntryPointConstants.VIEWGROUP_TYPE, AndroidClassType.LayoutContainer);
+        putClassType(AndroidEntryPointConstants.VIEW_TYPE, AndroidClassType.View);
+        putClassType(AndroidEntryPointConstants.WEBVIEW_TYPE, AndroidClassType.View);
+    }
+
+    private static void putClassType(String className, AndroidClassType type) {
+        androidClassTypes.put(TypeName.findOrCreate("L" + className.replace('.', '/')), type);
+    }
+
+    /**
+     * Classifies a class by its closest well-known supertype. The superclass chain is walked upwards,
+     * if no superclass is known, classes implementing {@link Runnable} (directly or via their interfaces) are Runnables.
+     * @param cache  verdicts of already classified classes, shared for all classes of a hierarchy so that
+     *               every supertype is only resolved once
+     */
+    public static AndroidClassType classifyClass(IClass clazz, Map<IClass, AndroidClassType> cache) {
+        AndroidClassType type = cache.get(clazz);
+        if (type != null)
+            return type;
+
+        type = androidClassTypes.get(clazz.getName());
+        if (type == null) {
+            type = clazz.getSuperclass() == null? AndroidClassType.Plain : classifyClass(clazz.getSuperclass(), cache);
+
+            if (type == AndroidClassType.Plain) {
+                for (IClass iface: clazz.getDirectInterfaces()) {
+                    if (classifyClass(iface, cache) == AndroidClassType.Runnable) {
+                        type = AndroidClassType.Runnable;
+                        break;
+                    }
+                }
             }
         }
-        return AndroidClassType.Plain;
+
+        cache.put(clazz, type);
+        return type;
     }
 
     public static List<IClass> getSuperClassesIncluding(IClass clazz) {
@@ -130,9 +216,25 @@ public class WalaUtils {
         return superclasses;
     }
 
+    /**
+     * Like {@link #isAppClass(IClass)}, but each verdict is computed once per class
+     * @param cache  verdicts of already checked classes, to be shared for all passes over the hierarchy of one analysis
+     */
+    public static boolean isAppClass(IClass clazz, Map<IClass, Boolean> cache) {
+        Boolean isAppClass = cache.get(clazz);
+        if (isAppClass == null) {
+            isAppClass = isAppClass(clazz);
+            cache.put(clazz, isAppClass);
+        }
+        return isAppClass;
+    }
+
     public static boolean isAppClass(IClass clazz) {
-        boolean isEmptyInnerClass = WalaUtils.isInnerClass(clazz)
-                && isAnonymousInnerClass(clazz)
+        // the type name is converted once, all name checks below scan it in place
+        String typeName = clazz.getName().toString();
+
+        boolean isEmptyInnerClass = WalaUtils.isInnerClass(typeName)
+                && isAnonymousInnerClass(typeName, 1, typeName.length())
                 && (clazz.getDeclaredMethods().isEmpty() ||
                 (clazz.getDeclaredMethods().size() == 1 && clazz.getDeclaredMethods().iterator().next().isClinit())
                         && clazz.getDeclaredInstanceFields().isEmpty()
@@ -144,34 +246,40 @@ public class WalaUtils {
 //                + ",\n\t isAndroidResourceClass=" + !isAndroidResourceClass(clazz)
 //                + ",\n\t isSynthetic=" + !clazz.isSynthetic());
 
-        return clazz.getClassHierarchy().getScope().isApplicationLoader(clazz.getClassLoader()) && !isAndroidResourceClass(clazz) && !isEmptyInnerClass && !clazz.isSynthetic();
+        return clazz.getClassHierarchy().getScope().isApplicationLoader(clazz.getClassLoader()) && !isAndroidResourceClass(typeName) && !isEmptyInnerClass && !clazz.isSynthetic();
     }
 
-    private static boolean isAndroidResourceClass(IClass clazz) {
+    private static boolean isAndroidResourceClass(String typeName) {
         // match R and BuildConfig class and their inner classes
-        String clazzName = getClassName(clazz);
-        return clazzName.equals("R") || clazzName.startsWith("R$") || clazzName.equals("BuildConfig");
-
+        int begin = typeName.lastIndexOf('/') + 1;
+        int length = (typeName.endsWith(";")? typeName.length() - 1 : typeName.length()) - begin;
+        return (length == 1 && typeName.charAt(begin) == 'R') || typeName.startsWith("R$", begin) ||
+                (length == 11 && typeName.startsWith("BuildConfig", begin));
     }
 
-    private static boolean isInnerClass(IClass clazz) {
-        return getClassName(clazz).contains("$");
-    }
-
-    private static String getClassName(IClass clazz) {
-        String clazzName = clazz.getName().toString().substring(clazz.getName().toString().lastIndexOf("/")+1);
-        return clazzName.endsWith(";")? clazzName.substring(0, clazzName.length()-1) : clazzName;
+    private static boolean isInnerClass(String typeName) {
+        return typeName.indexOf('$', typeName.lastIndexOf('/') + 1) >= 0;
     }
 
     public static boolean isAnonymousInnerClass(final IClass clazz) {
-        return isAnonymousInnerClass(simpleName(clazz));
+        String typeName = clazz.getName().toString();
+        return isAnonymousInnerClass(typeName, 1, typeName.length());  // skip leading "L"
     }
 
-    private static boolean isAnonymousInnerClass(final String clazzName) {
-        final Pattern anonymousInnerClassPattern = Pattern.compile("^.+\\$[0-9]+$");
-        final Matcher matcher = anonymousInnerClassPattern.matcher(clazzName);
+    public static boolean isAnonymousInnerClass(final String clazzName) {
+        return isAnonymousInnerClass(clazzName, 0, clazzName.length());
+    }
 
-        return matcher.matches();
+    /**
+     * Checks whether name[begin, end) looks like an anonymous inner class, e.g. com.foo.Bar$1 (equivalent to the
+     * regex ^.+\$[0-9]+$). The region can also be the class name within a type name, e.g. Lcom/foo/Bar$1;
+     */
+    public static boolean isAnonymousInnerClass(final String name, int begin, int end) {
+        // scan the trailing digits backwards, they have to be preceded by '$' and at least one more character
+        int i = end - 1;
+        while (i >= begin && name.charAt(i) >= '0' && name.charAt(i) <= '9')
+            i--;
+        return i < end - 1 && i > begin && name.charAt(i) == '$';
     }
 
     public static String simpleName(IClass c) {
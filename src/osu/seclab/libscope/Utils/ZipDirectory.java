@@ -0,0 +1,223 @@
+package osu.seclab.libscope.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal zip central directory reader that gives direct access to entry data without temp files.
+ * Stored entries are memory-mapped at their offset within the archive, deflated entries are
+ * inflated once into a heap buffer. Entry data may be requested concurrently.
+ * ZIP64 archives are not supported.
+ */
+public class ZipDirectory implements Closeable {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int INFLATE_CHUNK_SIZE = 256 * 1024;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long compressedSize;
+        public final long size;
+        private final long localHeaderOffset;
+
+        private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public ZipDirectory(File zipFile) throws IOException {
+        this.channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return  true if the file starts with a zip local file header, regardless of its name
+     */
+    public static boolean isZipFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            return !header.hasRemaining() && header.getInt(0) == LOCAL_HEADER_SIGNATURE;
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, EOCD_MIN_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+
+        int eocd = -1;
+        for (int i = tailSize - EOCD_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0)
+            throw new IOException("No zip end of central directory record found");
+
+        int numEntries = tail.getShort(eocd + 10) & 0xFFFF;
+        long cdSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cdOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (numEntries == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL)
+            throw new IOException("ZIP64 archives are not supported");
+
+        ByteBuffer cd = read(cdOffset, (int) cdSize);
+        int pos = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if (cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                throw new IOException("Corrupt zip central directory");
+
+            int method = cd.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+            int extraLength = cd.getShort(pos + 30) & 0xFFFF;
+            int commentLength = cd.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            byte[] name = new byte[nameLength];
+            cd.position(pos + 46);
+            cd.get(name);
+
+            Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), method, compressedSize, size, localHeaderOffset);
+            if (!entries.containsKey(entry.name))
+                entries.put(entry.name, entry);
+
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                throw new IOException("Unexpected end of zip file");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+            throw new IOException("Corrupt local header for zip entry " + entry.name);
+
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        return entry.localHeaderOffset + 30 + nameLength + extraLength;
+    }
+
+    /**
+     * Returns the uncompressed data of an entry. Stored entries are memory-mapped, the returned buffer
+     * stays valid after this directory is closed.
+     */
+    public ByteBuffer getData(Entry entry) throws IOException {
+        return getData(entry, entry.size);
+    }
+
+    /**
+     * Returns the first {@code length} uncompressed bytes of an entry (or less if the entry is smaller).
+     * Deflated entries are only inflated up to that length.
+     */
+    public ByteBuffer getData(Entry entry, long length) throws IOException {
+        long dataOffset = getDataOffset(entry);
+        length = Math.min(length, entry.size);
+
+        if (entry.method == STORED)
+            return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, length);
+
+        if (entry.method != DEFLATED)
+            throw new IOException("Unsupported compression method " + entry.method + " for zip entry " + entry.name);
+
+        byte[] data = new byte[(int) length];
+        long inputPos = dataOffset;
+        long inputEnd = dataOffset + entry.compressedSize;
+        Inflater inflater = new Inflater(true);
+        try {
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                // compressed input is read in chunks, so partial reads only touch the beginning of the entry
+                if (inflater.needsInput()) {
+                    if (inputPos >= inputEnd)
+                        break;
+                    int chunk = (int) Math.min(INFLATE_CHUNK_SIZE, inputEnd - inputPos);
+                    inflater.setInput(read(inputPos, chunk).array());
+                    inputPos += chunk;
+                }
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && inflater.needsDictionary())
+                    break;
+                n += read;
+            }
+            if (n != data.length)
+                throw new IOException("Truncated zip entry " + entry.name);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt zip entry " + entry.name, e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    public InputStream getInputStream(Entry entry) throws IOException {
+        ByteBuffer data = getData(entry);
+        if (data.hasArray())
+            return new ByteArrayInputStream(data.array(), data.arrayOffset(), data.remaining());
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
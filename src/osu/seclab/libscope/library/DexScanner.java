@@ -0,0 +1,147 @@
+package osu.seclab.libscope.library;
+
+import org.jf.dexlib2.AccessFlags;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.ApkArchive;
+import osu.seclab.libscope.Utils.Utils;
+import osu.seclab.libscope.Utils.WalaUtils;
+import osu.seclab.libscope.library.DexTableReader.DexClass;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Lightweight alternative to the WALA class hierarchy that reads the index tables of the classes*.dex
+ * files of an apk directly (see {@link DexTableReader}). It only looks at class names, access flags,
+ * supertypes, field counts and method flags, which is sufficient for the package tree and the
+ * class/method statistics.
+ * Unlike the class hierarchy, classes with unresolvable supertypes are not dropped.
+ */
+public class DexScanner {
+    private static final Logger logger = LoggerFactory.getLogger(DexScanner.class);
+
+    // dex type name -> class definition, first definition wins for classes duplicated across dex files
+    private final Map<String, DexClass> classes = new LinkedHashMap<>();
+
+    public DexScanner(final ApkArchive apk) throws IOException {
+        // multi-dex apps: each dex file is inflated and parsed on its own core, results are merged in dex order
+        List<List<DexClass>> perDexClasses;
+        try {
+            perDexClasses = apk.getDexEntries().parallelStream()
+                    .map(entry -> {
+                        try {
+                            return new DexTableReader(apk.readDexFile(entry)).getClasses();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (List<DexClass> dexClasses: perDexClasses) {
+            for (DexClass clazz: dexClasses) {
+                if (!classes.containsKey(clazz.type))
+                    classes.put(clazz.type, clazz);
+            }
+        }
+    }
+
+    /**
+     * @return  fully-qualified names of all app classes, filtered like {@link WalaUtils#isAppClass}
+     */
+    public List<String> getAppClasses() {
+        List<String> result = new ArrayList<>();
+        for (DexClass clazz: classes.values()) {
+            if (isAppClass(clazz))
+                result.add(Utils.convertToFullClassName(clazz.type));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the same statistics as {@link WalaUtils#getChaStats}, except for the Android class types
+     * which would require the framework class hierarchy
+     */
+    public JSONObject getStats() {
+        int clCount = 0;
+        int innerClCount = 0;
+        int publicClCount = 0;
+        int publicMethodCount = 0;
+        int miscMethodCount = 0;
+
+        for (DexClass clazz: classes.values()) {
+            if (!isAppClass(clazz))
+                continue;
+
+            clCount++;
+            if (getClassName(clazz).contains("$"))
+                innerClCount++;
+            if (AccessFlags.PUBLIC.isSet(clazz.accessFlags))
+                publicClCount++;
+
+            for (int flags: clazz.methodAccessFlags) {
+                if (AccessFlags.BRIDGE.isSet(flags) || AccessFlags.SYNTHETIC.isSet(flags)) continue;
+
+                if (AccessFlags.PUBLIC.isSet(flags)) {
+                    publicMethodCount++;
+                } else {
+                    miscMethodCount++;
+                }
+            }
+        }
+
+        logger.info("");
+        logger.info("= Dex Stats =");
+        logger.info(Utils.INDENT + "# of classes: " + clCount);
+        logger.info(Utils.INDENT + "# thereof inner classes: " + innerClCount);
+        logger.info(Utils.INDENT + "# thereof public classes: " + publicClCount);
+        logger.info(Utils.INDENT + "# methods: " + (publicMethodCount + miscMethodCount));
+        logger.info(Utils.INDENT2 + "# of publicly accessible methods: " + publicMethodCount);
+        logger.info(Utils.INDENT2 + "# of non-accessible methods: " + miscMethodCount);
+        logger.info("");
+
+        JSONObject js = new JSONObject();
+        js.put("numClasses", clCount);
+        js.put("numInnerClasses", innerClCount);
+        js.put("numPublicClasses", publicClCount);
+        js.put("numMethods", (publicMethodCount + miscMethodCount));
+        js.put("numPublicMethods", publicMethodCount);
+        js.put("numMiscMethods", miscMethodCount);
+        return js;
+    }
+
+    private static boolean isAppClass(DexClass clazz) {
+        String clazzName = getClassName(clazz);
+        if (clazzName.equals("R") || clazzName.startsWith("R$") || clazzName.equals("BuildConfig"))
+            return false;
+        if (AccessFlags.SYNTHETIC.isSet(clazz.accessFlags))
+            return false;
+
+        if (clazzName.contains("$") && WalaUtils.isAnonymousInnerClass(clazz.type, 1, clazz.type.length() - 1)) {
+            int[] methods = clazz.methodAccessFlags;
+            boolean isEmptyInnerClass = methods.length == 0 ||
+                    (methods.length == 1 && isClinit(methods[0])
+                            && clazz.numInstanceFields == 0
+                            && clazz.numStaticFields == 0
+                            && clazz.numInterfaces == 0);
+            return !isEmptyInnerClass;
+        }
+        return true;
+    }
+
+    private static boolean isClinit(int methodAccessFlags) {
+        // <clinit> is the only method that is both a constructor and static
+        return AccessFlags.CONSTRUCTOR.isSet(methodAccessFlags) && AccessFlags.STATIC.isSet(methodAccessFlags);
+    }
+
+    private static String getClassName(DexClass clazz) {
+        String clazzName = clazz.type.substring(clazz.type.lastIndexOf("/")+1);
+        return clazzName.endsWith(";")? clazzName.substring(0, clazzName.length()-1) : clazzName;
+    }
+}
@@ -0,0 +1,151 @@
+package osu.seclab.libscope.library;
+
+import com.googlecode.dex2jar.reader.io.ByteBufferDataIn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for the index tables of a dex file (header, string_ids, type_ids, class_defs).
+ * The dex file is accessed through a {@link ByteBuffer}, typically memory-mapped, and only the
+ * table entries and class_data headers are touched. Method bodies (code items) are never read.
+ * Instances are not thread-safe.
+ * See https://source.android.com/devices/tech/dalvik/dex-format
+ */
+public class DexTableReader {
+    private static final int HEADER_SIZE = 0x70;
+    private static final int NO_INDEX = 0xFFFFFFFF;
+    private static final int CLASS_DEF_SIZE = 32;
+
+    private final ByteBufferDataIn in;
+    private final int stringIdsSize;
+    private final int stringIdsOff;
+    private final int typeIdsSize;
+    private final int typeIdsOff;
+    private final int classDefsSize;
+    private final int classDefsOff;
+
+    // decoded type descriptors, indexed by type_idx
+    private final String[] types;
+
+    public DexTableReader(ByteBuffer dex) throws IOException {
+        this.in = new ByteBufferDataIn(dex);
+
+        if (in.size() < HEADER_SIZE || in.getUByte(0) != 'd' || in.getUByte(1) != 'e' || in.getUByte(2) != 'x' || in.getUByte(3) != '\n')
+            throw new IOException("Not a dex file");
+
+        stringIdsSize = in.getUIntx(0x38);
+        stringIdsOff = in.getUIntx(0x3C);
+        typeIdsSize = in.getUIntx(0x40);
+        typeIdsOff = in.getUIntx(0x44);
+        classDefsSize = in.getUIntx(0x60);
+        classDefsOff = in.getUIntx(0x64);
+
+        types = new String[typeIdsSize];
+    }
+
+    public int getClassCount() {
+        return classDefsSize;
+    }
+
+    public String getString(int stringIdx) {
+        if (stringIdx < 0 || stringIdx >= stringIdsSize)
+            throw new IndexOutOfBoundsException("string_idx " + stringIdx);
+
+        // string_data_item: uleb128 utf16_size, MUTF-8 bytes
+        in.move(in.getUIntx(stringIdsOff + 4 * stringIdx));
+        int utf16Size = (int) in.readULeb128();
+        return decodeMutf8(utf16Size);
+    }
+
+    /**
+     * @return  the type descriptor, e.g. "Lcom/foo/Bar;"
+     */
+    public String getType(int typeIdx) {
+        if (types[typeIdx] == null)
+            types[typeIdx] = getString(in.getUIntx(typeIdsOff + 4 * typeIdx));
+        return types[typeIdx];
+    }
+
+    public List<DexClass> getClasses() {
+        List<DexClass> result = new ArrayList<>(classDefsSize);
+        for (int i = 0; i < classDefsSize; i++)
+            result.add(getClass(i));
+        return result;
+    }
+
+    public DexClass getClass(int classDefIdx) {
+        int off = classDefsOff + CLASS_DEF_SIZE * classDefIdx;
+        int classIdx = in.getUIntx(off);
+        int accessFlags = in.getUIntx(off + 4);
+        int superclassIdx = in.getUIntx(off + 8);
+        int interfacesOff = in.getUIntx(off + 12);
+        int classDataOff = in.getUIntx(off + 24);
+
+        DexClass clazz = new DexClass(getType(classIdx), accessFlags, superclassIdx == NO_INDEX? null : getType(superclassIdx));
+        clazz.numInterfaces = interfacesOff == 0? 0 : in.getUIntx(interfacesOff);
+
+        if (classDataOff != 0) {
+            in.move(classDataOff);
+            clazz.numStaticFields = (int) in.readULeb128();
+            clazz.numInstanceFields = (int) in.readULeb128();
+            int numDirectMethods = (int) in.readULeb128();
+            int numVirtualMethods = (int) in.readULeb128();
+
+            // encoded_field: uleb128 field_idx_diff, uleb128 access_flags
+            for (int i = 0; i < clazz.numStaticFields + clazz.numInstanceFields; i++) {
+                in.readULeb128();
+                in.readULeb128();
+            }
+
+            // encoded_method: uleb128 method_idx_diff, uleb128 access_flags, uleb128 code_off
+            clazz.methodAccessFlags = new int[numDirectMethods + numVirtualMethods];
+            for (int i = 0; i < clazz.methodAccessFlags.length; i++) {
+                in.readULeb128();
+                clazz.methodAccessFlags[i] = (int) in.readULeb128();
+                in.readULeb128();
+            }
+        }
+
+        return clazz;
+    }
+
+    private String decodeMutf8(int utf16Size) {
+        char[] chars = new char[utf16Size];
+        for (int i = 0; i < utf16Size; i++) {
+            int a = in.readUByte();
+            if ((a & 0x80) == 0) {
+                chars[i] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                int b = in.readUByte();
+                chars[i] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+            } else {
+                int b = in.readUByte();
+                int c = in.readUByte();
+                chars[i] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Class definition as recorded in the class_defs table plus the sizes from its class_data header
+     */
+    public static class DexClass {
+        public final String type;
+        public final int accessFlags;
+        public final String superclass;
+        public int numInterfaces = 0;
+        public int numStaticFields = 0;
+        public int numInstanceFields = 0;
+        public int[] methodAccessFlags = new int[0];
+
+        DexClass(String type, int accessFlags, String superclass) {
+            this.type = type;
+            this.accessFlags = accessFlags;
+            this.superclass = superclass;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package osu.seclab.libscope.library;
+
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.Utils;
+import osu.seclab.libscope.main.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.JarFile;
+
+/**
+ * Class loader factory that hands out one process-wide primordial (Android framework) loader.
+ * The framework classes of {@link osu.seclab.libscope.main.Config#ANDROID_JAR} are parsed once,
+ * on first use, into a framework-only class hierarchy. Every subsequent app hierarchy reuses that
+ * loader read-only, so only the app's dex files are loaded per analysis.
+ * If a {@link FrameworkSnapshot} exists, the framework loader is populated from it instead of the jar.
+ */
+public class FrameworkClassLoaderFactory extends ClassLoaderFactoryImpl {
+    private static final Logger logger = LoggerFactory.getLogger(FrameworkClassLoaderFactory.class);
+
+    private static IClassHierarchy frameworkCha;
+    private static IClassLoader frameworkLoader;
+
+    public FrameworkClassLoaderFactory(AnalysisScope scope) {
+        super(scope.getExclusions());
+    }
+
+    @Override
+    public IClassLoader getLoader(ClassLoaderReference classLoaderReference, IClassHierarchy cha, AnalysisScope scope) throws IOException {
+        if (ClassLoaderReference.Primordial.equals(classLoaderReference))
+            return getFrameworkLoader(scope);
+
+        return super.getLoader(classLoaderReference, cha, scope);
+    }
+
+    private static synchronized IClassLoader getFrameworkLoader(AnalysisScope appScope) throws IOException {
+        if (frameworkLoader == null) {
+            long startTime = System.currentTimeMillis();
+
+            File androidJar = new File(Config.ANDROID_JAR);
+            File snapshotFile = new File(Config.FRAMEWORK_SNAPSHOT);
+            FrameworkSnapshot snapshot = FrameworkSnapshot.load(snapshotFile, androidJar);
+
+            // framework-only scope, so that the shared loader does not retain the first app's hierarchy
+            AnalysisScope scope = AnalysisScope.createJavaAnalysisScope();
+            scope.setExclusions(appScope.getExclusions());
+            if (snapshot != null) {
+                scope.addToScope(ClassLoaderReference.Primordial, snapshot);
+            } else {
+                // always android.jar, the caller's scope may not contain the framework (e.g. reference libraries)
+                if (!androidJar.isFile())
+                    throw new IOException("Android framework jar not found: " + androidJar);
+                // stays open for the lifetime of the shared loader, WALA may re-read class files
+                scope.addToScope(ClassLoaderReference.Primordial, new JarFileModule(new JarFile(androidJar)));
+            }
+
+            try {
+                frameworkCha = ClassHierarchyFactory.make(scope, new ClassLoaderFactoryImpl(scope.getExclusions()));
+            } catch (ClassHierarchyException e) {
+                throw new IOException("Could not create framework class hierarchy", e);
+            }
+            frameworkLoader = frameworkCha.getLoader(ClassLoaderReference.Primordial);
+
+            logger.info("Generated shared framework class hierarchy " + (snapshot != null? "from snapshot " : "") + "(in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+
+            if (snapshot == null) {
+                try {
+                    FrameworkSnapshot.write(frameworkCha, snapshotFile, androidJar);
+                } catch (IOException e) {
+                    logger.warn("Could not write framework snapshot: " + e.getMessage());
+                }
+            }
+        }
+        return frameworkLoader;
+    }
+
+    /**
+     * @return  the shared framework-only class hierarchy or null if it has not been built yet
+     */
+    public static synchronized IClassHierarchy getFrameworkClassHierarchy() {
+        return frameworkCha;
+    }
+}
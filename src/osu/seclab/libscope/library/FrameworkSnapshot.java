@@ -0,0 +1,295 @@
+package osu.seclab.libscope.library;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.BinaryFiles;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of the framework class table (class name, superclass, interfaces, access flags).
+ * It is written once from the framework class hierarchy and memory-mapped by later processes.
+ * As a WALA {@link Module} it serves minimal class files (no fields/methods) for every recorded class,
+ * which is all the app class hierarchy needs to resolve framework supertypes.
+ *
+ * File layout (big endian):
+ *   int magic, int version, long sourceLength, long sourceLastModified,
+ *   int #strings, { u2 length, modified UTF-8 bytes }*,
+ *   int #classes, { int name, int superclass (-1 if none), int accessFlags, u2 #interfaces, int interface* }*
+ */
+public class FrameworkSnapshot implements Module {
+    private static final Logger logger = LoggerFactory.getLogger(FrameworkSnapshot.class);
+
+    private static final int MAGIC = 0x4C534653;  // "LSFS"
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int[] stringOffsets;
+    private final int[] classOffsets;
+
+    private FrameworkSnapshot(ByteBuffer buffer, int[] stringOffsets, int[] classOffsets) {
+        this.buffer = buffer;
+        this.stringOffsets = stringOffsets;
+        this.classOffsets = classOffsets;
+    }
+
+    /**
+     * Memory-maps an existing snapshot
+     * @param snapshotFile  the snapshot file
+     * @param sourceJar  the jar the snapshot was created from, used to detect stale snapshots
+     * @return  the snapshot or null if it does not exist, is outdated or corrupt (so that it is rebuilt from the jar)
+     */
+    public static FrameworkSnapshot load(File snapshotFile, File sourceJar) throws IOException {
+        if (!snapshotFile.isFile())
+            return null;
+
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION ||
+                    buf.getLong() != sourceJar.length() || buf.getLong() != sourceJar.lastModified()) {
+                logger.info("Framework snapshot " + snapshotFile + " is outdated");
+                return null;
+            }
+            return parse(buf);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            // e.g. a truncated file, all offsets are validated here so that class lookups cannot fail later
+            logger.warn("Framework snapshot " + snapshotFile + " is corrupt (" + e + ")");
+            return null;
+        }
+    }
+
+    private static FrameworkSnapshot parse(ByteBuffer buf) {
+        int[] stringOffsets = new int[buf.getInt()];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = buf.position();
+            buf.position(buf.position() + 2 + (buf.getShort() & 0xFFFF));
+        }
+
+        int[] classOffsets = new int[buf.getInt()];
+        for (int i = 0; i < classOffsets.length; i++) {
+            classOffsets[i] = buf.position();
+            checkStringId(buf.getInt(), stringOffsets.length, false);
+            checkStringId(buf.getInt(), stringOffsets.length, true);
+            buf.getInt();  // access flags
+            int numInterfaces = buf.getShort() & 0xFFFF;
+            for (int j = 0; j < numInterfaces; j++)
+                checkStringId(buf.getInt(), stringOffsets.length, false);
+        }
+        if (buf.hasRemaining())
+            throw new IllegalArgumentException(buf.remaining() + " trailing bytes");
+
+        return new FrameworkSnapshot(buf, stringOffsets, classOffsets);
+    }
+
+    private static void checkStringId(int id, int numStrings, boolean optional) {
+        if (id >= numStrings || id < (optional? -1 : 0))
+            throw new IllegalArgumentException("invalid string id " + id);
+    }
+
+    /**
+     * Writes the primordial classes of the given class hierarchy to a snapshot file
+     * @param cha  the framework class hierarchy
+     * @param snapshotFile  the target file
+     * @param sourceJar  the jar the hierarchy was created from
+     */
+    public static void write(IClassHierarchy cha, File snapshotFile, File sourceJar) throws IOException {
+        Map<String, Integer> stringIds = new LinkedHashMap<>();
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream classes = new DataOutputStream(classBytes);
+        int numClasses = 0;
+
+        for (IClass clazz: cha) {
+            if (!ClassLoaderReference.Primordial.equals(clazz.getClassLoader().getReference()) || clazz.isArrayClass())
+                continue;
+
+            Collection<? extends IClass> interfaces = clazz.getDirectInterfaces();
+            classes.writeInt(BinaryFiles.stringId(stringIds, internalName(clazz)));
+            classes.writeInt(clazz.getSuperclass() == null? -1 : BinaryFiles.stringId(stringIds, internalName(clazz.getSuperclass())));
+            classes.writeInt(clazz.getModifiers());
+            classes.writeShort(interfaces.size());
+            for (IClass iface: interfaces)
+                classes.writeInt(BinaryFiles.stringId(stringIds, internalName(iface)));
+            numClasses++;
+        }
+        classes.flush();
+
+        // published atomically so that concurrent processes never map a partial file
+        final int numRecords = numClasses;
+        BinaryFiles.writeAtomically(snapshotFile, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceJar.length());
+            out.writeLong(sourceJar.lastModified());
+            out.writeInt(stringIds.size());
+            for (String s: stringIds.keySet())
+                out.writeUTF(s);
+            out.writeInt(numRecords);
+            classBytes.writeTo(out);
+        });
+        logger.info("Wrote framework snapshot with " + numClasses + " classes to " + snapshotFile);
+    }
+
+    private static String internalName(IClass clazz) {
+        return clazz.getName().toString().substring(1);  // strip leading "L"
+    }
+
+    public int getNumberOfClasses() {
+        return classOffsets.length;
+    }
+
+    /**
+     * Reads the raw modified UTF-8 entry of the string table (length prefix included)
+     */
+    private byte[] rawString(int id) {
+        int offset = stringOffsets[id];
+        byte[] raw = new byte[2 + (buffer.getShort(offset) & 0xFFFF)];
+        for (int i = 0; i < raw.length; i++)
+            raw[i] = buffer.get(offset + i);
+        return raw;
+    }
+
+    private String string(int id) {
+        byte[] raw = rawString(id);
+        return new String(raw, 2, raw.length - 2, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Synthesizes a class file that only declares name, access flags, superclass and interfaces
+     */
+    private byte[] toClassFile(int classId) throws IOException {
+        int offset = classOffsets[classId];
+        int nameId = buffer.getInt(offset);
+        int superId = buffer.getInt(offset + 4);
+        int accessFlags = buffer.getInt(offset + 8);
+        int numInterfaces = buffer.getShort(offset + 12) & 0xFFFF;
+
+        int[] classRefs = new int[numInterfaces + 2];
+        classRefs[0] = nameId;
+        classRefs[1] = superId;
+        for (int i = 0; i < numInterfaces; i++)
+            classRefs[i + 2] = buffer.getInt(offset + 14 + 4 * i);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 32 * classRefs.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);   // minor version
+        out.writeShort(50);  // major version (Java 6)
+
+        // constant pool: a Utf8 and a Class entry per referenced type, indices start at 1
+        int cpCount = 0;
+        for (int ref: classRefs)
+            if (ref >= 0) cpCount++;
+        out.writeShort(1 + 2 * cpCount);
+
+        int[] classIndex = new int[classRefs.length];
+        int next = 1;
+        for (int i = 0; i < classRefs.length; i++) {
+            if (classRefs[i] < 0) continue;
+            out.writeByte(1);  // CONSTANT_Utf8
+            out.write(rawString(classRefs[i]));
+            out.writeByte(7);  // CONSTANT_Class
+            out.writeShort(next);
+            classIndex[i] = next + 1;
+            next += 2;
+        }
+
+        out.writeShort(accessFlags & 0xFFFF);
+        out.writeShort(classIndex[0]);
+        out.writeShort(classIndex[1]);  // 0 if no superclass
+        out.writeShort(numInterfaces);
+        for (int i = 0; i < numInterfaces; i++)
+            out.writeShort(classIndex[i + 2]);
+        out.writeShort(0);  // fields
+        out.writeShort(0);  // methods
+        out.writeShort(0);  // attributes
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Iterator<ModuleEntry> getEntries() {
+        return new Iterator<ModuleEntry>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < classOffsets.length;
+            }
+
+            @Override
+            public ModuleEntry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return new Entry(next++);
+            }
+        };
+    }
+
+    private class Entry implements ModuleEntry {
+        private final int classId;
+
+        Entry(int classId) {
+            this.classId = classId;
+        }
+
+        @Override
+        public String getName() {
+            return getClassName() + ".class";
+        }
+
+        @Override
+        public boolean isClassFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isSourceFile() {
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            try {
+                return new ByteArrayInputStream(toClassFile(classId));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean isModuleFile() {
+            return false;
+        }
+
+        @Override
+        public Module asModule() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getClassName() {
+            return string(buffer.getInt(classOffsets[classId]));
+        }
+
+        @Override
+        public Module getContainer() {
+            return FrameworkSnapshot.this;
+        }
+    }
+}
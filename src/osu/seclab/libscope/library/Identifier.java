@@ -1,5 +1,6 @@
 package osu.seclab.libscope.library;
 
+import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.dalvik.util.AndroidAnalysisScope;
 import com.ibm.wala.ipa.callgraph.AnalysisScope;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
@@ -10,33 +11,70 @@ import org.checkerframework.checker.units.qual.A;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import osu.seclab.libscope.Utils.ApkUtils;
+import osu.seclab.libscope.Utils.ApkArchive;
+import osu.seclab.libscope.Utils.ClassHierarchyPass;
 import osu.seclab.libscope.Utils.FileUtility;
 import osu.seclab.libscope.Utils.Utils;
 import osu.seclab.libscope.Utils.WalaUtils;
+import osu.seclab.libscope.Utils.ZipDirectory;
 import osu.seclab.libscope.main.Config;
 import osu.seclab.libscope.main.runTest;
 import osu.seclab.libscope.manifest.ProcessManifest;
+import osu.seclab.libscope.pkg.FirstPartyMatcher;
 import osu.seclab.libscope.pkg.PackageTree;
 import osu.seclab.libscope.profile.Profile;
 import osu.seclab.libscope.stats.AppStats;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 public class Identifier {
     private static Logger logger = LoggerFactory.getLogger(Identifier.class);
     private IClassHierarchy cha;
+    // isAppClass verdicts, shared by all passes over the class hierarchy
+    private final Map<IClass, Boolean> appClassCache = new HashMap<>();
+    // structural fingerprints of the app packages, only collected if there is a structure index
+    private Map<String, Set<Long>> packageFingerprints;
+    // API fingerprints of the app packages, only collected if versions can be resolved
+    private Map<String, Set<Long>> packageApiFingerprints;
+    private DexScanner dexScanner;
     private AppStats stats;
+    private final boolean dexOnly;
+    private final boolean keepPackageTree;
 
-    public Identifier(File appFile) {
+    public Identifier(File appFile, boolean dexOnly) {
+        this(appFile, dexOnly, true);
+    }
+
+    /**
+     * @param keepPackageTree  if true, the returned stats contain the (frozen) package tree
+     */
+    public Identifier(File appFile, boolean dexOnly, boolean keepPackageTree) {
         this.stats = new AppStats(appFile);
+        this.dexOnly = dexOnly;
+        this.keepPackageTree = keepPackageTree;
     }
 
     public static AppStats run(File appFile) throws ClassHierarchyException, IOException {
-        Identifier identifier = new Identifier(appFile);
+        return run(appFile, false);
+    }
+
+    /**
+     * @param dexOnly  if true, scan the dex files directly instead of building the WALA class hierarchy
+     */
+    public static AppStats run(File appFile, boolean dexOnly) throws ClassHierarchyException, IOException {
+        return run(appFile, dexOnly, true);
+    }
+
+    /**
+     * @param keepPackageTree  if false, the package tree is not frozen into the returned stats,
+     *                         e.g. if only the written results are needed
+     */
+    public static AppStats run(File appFile, boolean dexOnly, boolean keepPackageTree) throws ClassHierarchyException, IOException {
+        Identifier identifier = new Identifier(appFile, dexOnly, keepPackageTree);
         return identifier.identifyLibraries();
     }
 
@@ -45,21 +83,44 @@ public class Identifier {
 
         logger.info("Process apk: " + stats.appFile.getName());
 
-        stats.manifest = parseManifest(stats.appFile);
+        // the apk is opened once and shared by the manifest parser and the dex stages
+        try (ApkArchive apk = new ApkArchive(stats.appFile)) {
+            stats.manifest = parseManifest(apk);
+            recordDexStats(apk);
 
-        JSONObject chaStatsJSON = createClassHierarchy();
+            JSONObject chaStatsJSON;
+            PackageTree packageTree;
+            if (dexOnly) {
+                chaStatsJSON = scanDexFiles(apk);
+                packageTree = generatePackageClassTree();
+            } else {
+                createClassHierarchy();
 
-        PackageTree packageTree = generatePackageClassTree();
+                // stats, package tree and structural fingerprints are collected in one pass over the class hierarchy
+                WalaUtils.ChaStats chaStats = new WalaUtils.ChaStats(runTest.exportSignatures);
+                PackageTree.Builder treeBuilder = new PackageTree.Builder(null);
+                packageTree = visitClassHierarchy(chaStats, treeBuilder);
+                chaStatsJSON = chaStats.toJson();
+            }
 
-        recordResults(chaStatsJSON, packageTree);
+            recordResults(chaStatsJSON, packageTree);
+            if (keepPackageTree)
+                stats.packageTree = packageTree.freeze();
+        }
 
-        return null;
+        return stats;
     }
 
-    private void recordResults(JSONObject chaStatsJSON, PackageTree packageTree) {
-        Map<String, Set<String>> thirdPartyLibs = packageTree.getThirdPartyClasses(stats.manifest.getPackageName());
+    private void recordResults(JSONObject chaStatsJSON, PackageTree packageTree) throws IOException {
+        FirstPartyMatcher firstParty = FirstPartyMatcher.of(stats.manifest);
+        logger.info("- first-party packages: " + firstParty.getPrefixes());
+
+        Map<String, Set<String>> thirdPartyLibs = packageTree.getThirdPartyClasses(firstParty);
         JSONObject js = new JSONObject(), tmp = new JSONObject();
 
+        Map<String, Integer> libraryRoots = packageTree.getLibraryRoots(firstParty);
+        logger.info("- clustered " + thirdPartyLibs.size() + " third-party packages into " + libraryRoots.size() + " library roots");
+
         int totalThirdPartyClasses = 0;
         for (Map.Entry<String, Set<String>> entry: thirdPartyLibs.entrySet()) {
             tmp.put(entry.getKey(), entry.getValue());
@@ -67,27 +128,126 @@ public class Identifier {
         }
         chaStatsJSON.put("numThirdPartyPackages", thirdPartyLibs.entrySet().size());
         chaStatsJSON.put("numThirdPartyClasses", totalThirdPartyClasses);
+        chaStatsJSON.put("numDexFiles", stats.numDexFiles);
+        chaStatsJSON.put("dexClassCounts", stats.dexClassCounts);
         js.put("manifest", stats.manifest.toJson());
         js.put("chaStats", chaStatsJSON);
         js.put("thirdPartyLibs", tmp);
+        js.put("libraryRoots", libraryRoots);
+
+        LibraryCatalog catalog = LibraryCatalog.getDefault();
+        if (catalog != null) {
+            Map<String, Set<String>> knownLibs = catalog.identify(thirdPartyLibs);
+            logger.info("- identified " + knownLibs.size() + " known libraries");
+            js.put("knownLibraries", knownLibs);
+
+            VersionCatalog versionCatalog = dexOnly? null : VersionCatalog.getDefault();
+            if (versionCatalog != null && packageApiFingerprints != null)
+                js.put("libraryVersions", resolveVersions(versionCatalog, knownLibs));
+        }
+
+        // obfuscated packages can only be matched by structure, which requires the class hierarchy
+        StructureIndex structureIndex = dexOnly? null : StructureIndex.getDefault();
+        if (structureIndex != null && packageFingerprints != null) {
+            packageFingerprints.keySet().retainAll(thirdPartyLibs.keySet());
+            Map<String, Set<String>> structuralMatches = structureIndex.identify(packageFingerprints);
+            logger.info("- matched " + structuralMatches.size() + " libraries by structure");
+            js.put("structuralMatches", structuralMatches);
+        }
         FileUtility.wf(runTest.outputDir + stats.manifest.getPackageName() + ".txt", js.toString(), false);
     }
 
+    private JSONObject resolveVersions(VersionCatalog versionCatalog, Map<String, Set<String>> knownLibs) {
+        long startTime = System.currentTimeMillis();
+
+        // each library unions the fingerprints of its packages
+        JSONObject js = new JSONObject();
+        for (Map.Entry<String, Set<String>> entry: knownLibs.entrySet()) {
+            VersionCatalog.VersionMatch match = versionCatalog.resolve(entry.getKey(), VersionCatalog.getApiFingerprints(packageApiFingerprints, entry.getValue()));
+            if (match == null)
+                continue;
+
+            logger.info(Utils.INDENT + entry.getKey() + ": " + match.getRange() + " (similarity " + String.format("%.2f", match.similarity) + ")");
+            JSONObject version = new JSONObject();
+            version.put("range", match.getRange());
+            version.put("versions", match.versions);
+            version.put("similarity", match.similarity);
+            js.put(entry.getKey(), version);
+        }
+
+        logger.info("- resolved versions of " + js.length() + " libraries (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+        return js;
+    }
+
     private PackageTree generatePackageClassTree() {
         long startTime = System.currentTimeMillis();
 
         // generate app package tree
-        PackageTree packageTree = Profile.generatePackageTree(cha);
+        PackageTree packageTree = Profile.generatePackageTree(dexScanner.getAppClasses());
         logger.info("- generated app package tree (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
         logger.info("");
 
         return packageTree;
     }
 
-    private JSONObject createClassHierarchy() throws IOException, ClassHierarchyException {
+    /**
+     * Runs the class hierarchy analyses (stats, package tree and, if the catalogs are available,
+     * the structural and API fingerprints) in a single pass over the app classes
+     * @return  the app package tree
+     */
+    private PackageTree visitClassHierarchy(WalaUtils.ChaStats chaStats, PackageTree.Builder treeBuilder) throws IOException {
         long startTime = System.currentTimeMillis();
 
-        stats.isMultiDex = ApkUtils.isMultiDexApk(stats.appFile);
+        ClassHierarchyPass pass = new ClassHierarchyPass().register(chaStats).register(treeBuilder);
+        StructureIndex.FingerprintCollector fingerprintCollector = null;
+        if (StructureIndex.getDefault() != null) {
+            fingerprintCollector = new StructureIndex.FingerprintCollector();
+            pass.register(fingerprintCollector);
+        }
+        // versions are only resolved for libraries identified by the catalog
+        VersionCatalog.ApiFingerprintCollector apiFingerprintCollector = null;
+        if (LibraryCatalog.getDefault() != null && VersionCatalog.getDefault() != null) {
+            apiFingerprintCollector = new VersionCatalog.ApiFingerprintCollector();
+            pass.register(apiFingerprintCollector);
+        }
+        pass.run(cha, appClassCache, runTest.passParallelism);
+
+        if (fingerprintCollector != null)
+            packageFingerprints = fingerprintCollector.getPackageFingerprints();
+        if (apiFingerprintCollector != null)
+            packageApiFingerprints = apiFingerprintCollector.getPackageFingerprints();
+        chaStats.log();
+        PackageTree packageTree = Profile.logPackageTree(treeBuilder.getTree());
+        logger.info("- visited class hierarchy (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+        logger.info("");
+
+        return packageTree;
+    }
+
+    private void recordDexStats(ApkArchive apk) throws IOException {
+        stats.isMultiDex = apk.isMultiDex();
+        stats.numDexFiles = apk.getNumberOfDexFiles();
+        for (ZipDirectory.Entry dexEntry: apk.getDexEntries())
+            stats.dexClassCounts.put(dexEntry.name, apk.getDexClassCount(dexEntry));
+
+        logger.info("= Dex Files =");
+        for (Map.Entry<String, Integer> entry: stats.dexClassCounts.entrySet())
+            logger.info(Utils.INDENT + entry.getKey() + ": " + entry.getValue() + " classes");
+        logger.info("");
+    }
+
+    private JSONObject scanDexFiles(ApkArchive apk) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        dexScanner = new DexScanner(apk);
+
+        logger.info("Scanned dex files (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+
+        return dexScanner.getStats();
+    }
+
+    private void createClassHierarchy() throws IOException, ClassHierarchyException {
+        long startTime = System.currentTimeMillis();
 
         if (stats.isMultiDex) {
             logger.info("Multi-dex apk detected - Code is merged to single class hierarchy!");
@@ -95,16 +255,15 @@ public class Identifier {
 
         final AnalysisScope scope = AndroidAnalysisScope.setUpAndroidAnalysisScope(new File(stats.appFile.getAbsolutePath()).toURI(), null, null, new File(Config.ANDROID_JAR).toURI());
 
-        cha = ClassHierarchyFactory.make(scope);
+        // framework classes are loaded once per process and shared by all app hierarchies
+        cha = ClassHierarchyFactory.make(scope, new FrameworkClassLoaderFactory(scope));
 
         logger.info("Generated class hierarchy (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
-
-        return WalaUtils.getChaStats(cha);
     }
 
-    private ProcessManifest parseManifest(File appFile) {
+    private ProcessManifest parseManifest(ApkArchive apk) {
         ProcessManifest processManifest = new ProcessManifest();
-        processManifest.loadManifestFile(appFile.getAbsolutePath());
+        processManifest.loadManifestFile(apk);
         logger.info("= Manifest Parser =");
         logger.info(Utils.INDENT + "    Package name: " + processManifest.getPackageName());
         logger.info(Utils.INDENT + "    Version code: " + processManifest.getVersionCode());
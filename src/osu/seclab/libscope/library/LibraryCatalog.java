@@ -0,0 +1,347 @@
+package osu.seclab.libscope.library;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.BinaryFiles;
+import osu.seclab.libscope.Utils.Fnv1a;
+import osu.seclab.libscope.main.Config;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Index of known libraries, built from reference jars/aars and memory-mapped for lookups.
+ * Every package of a reference library is recorded with the library name and a fingerprint of its
+ * (top-level) class names. Packages are looked up by their longest recorded parent package (binary search
+ * over the sorted package records, directly on the mapped file), packages that were renamed during
+ * repackaging can still be found by their class name fingerprint.
+ *
+ * File layout (big endian):
+ *   int magic, int version,
+ *   int #libraries, { u2 length, modified UTF-8 bytes }*,
+ *   int #packages, { int nameOffset, u2 nameLength, int library, long fingerprint }* sorted by UTF-8 package name,
+ *   int #fingerprints, { long fingerprint, int package }* sorted by fingerprint,
+ *   int #bytes, package names as UTF-8 bytes
+ */
+public class LibraryCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryCatalog.class);
+
+    private static final int MAGIC = 0x4C534C43;  // "LSLC"
+    private static final int VERSION = 1;
+
+    private static final int PACKAGE_RECORD_SIZE = 18;
+    private static final int FINGERPRINT_RECORD_SIZE = 12;
+
+    // packages with fewer classes are too unspecific to be identified by their fingerprint alone
+    public static final int MIN_FINGERPRINT_CLASSES = 3;
+
+    private static final BinaryFiles.LazyFile<LibraryCatalog> defaultCatalog = new BinaryFiles.LazyFile<>(new File(Config.LIBRARY_CATALOG), file -> {
+        LibraryCatalog catalog = load(file);
+        if (catalog != null)
+            logger.info("Loaded library catalog with " + catalog.getNumberOfLibraries() + " libraries and " + catalog.getNumberOfPackages() + " packages");
+        return catalog;
+    });
+
+    private final ByteBuffer buffer;
+    private final String[] libraries;
+    private final int numPackages;
+    private final int packagesOffset;
+    private final int numFingerprints;
+    private final int fingerprintsOffset;
+    private final int namesOffset;
+
+    private LibraryCatalog(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        libraries = new String[buffer.getInt()];
+        for (int i = 0; i < libraries.length; i++) {
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            libraries[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        numPackages = buffer.getInt();
+        packagesOffset = buffer.position();
+        buffer.position(packagesOffset + numPackages * PACKAGE_RECORD_SIZE);
+
+        numFingerprints = buffer.getInt();
+        fingerprintsOffset = buffer.position();
+        buffer.position(fingerprintsOffset + numFingerprints * FINGERPRINT_RECORD_SIZE);
+
+        buffer.getInt();
+        namesOffset = buffer.position();
+    }
+
+    /**
+     * Memory-maps an existing catalog
+     * @return  the catalog or null if the file does not exist
+     */
+    public static LibraryCatalog load(File catalogFile) throws IOException {
+        if (!catalogFile.isFile())
+            return null;
+
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(catalogFile.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+            throw new IOException("Unsupported library catalog " + catalogFile);
+
+        return new LibraryCatalog(buf);
+    }
+
+    /**
+     * @return  the process-wide catalog of {@link Config#LIBRARY_CATALOG} or null if there is none
+     */
+    public static LibraryCatalog getDefault() throws IOException {
+        return defaultCatalog.get();
+    }
+
+    /**
+     * Builds a catalog from reference libraries. The library name is the file name without extension and version
+     * (e.g. okhttp for okhttp-3.12.1.jar, see {@link VersionCatalog#parseLibraryFile}), classes of aars are read
+     * from their embedded jars. Packages that are identical across versions are recorded once.
+     * @param referenceLibs  jar and aar files
+     * @param catalogFile  the target file
+     */
+    public static void write(Collection<File> referenceLibs, File catalogFile) throws IOException {
+        Map<String, Integer> libIds = new LinkedHashMap<>();
+        List<PackageRecord> records = new ArrayList<>();
+        Set<String> recorded = new HashSet<>();
+
+        for (File lib: referenceLibs) {
+            Map<String, Set<String>> packageClasses = new HashMap<>();
+            try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(lib)))) {
+                collectClasses(in, packageClasses);
+            }
+            if (packageClasses.isEmpty()) {
+                logger.warn("No classes found in " + lib);
+                continue;
+            }
+
+            String libName = VersionCatalog.parseLibraryFile(lib).first();
+            if (!libIds.containsKey(libName))
+                libIds.put(libName, libIds.size());
+            int libId = libIds.get(libName);
+
+            for (Map.Entry<String, Set<String>> entry: packageClasses.entrySet()) {
+                long fingerprint = fingerprint(entry.getValue());
+                if (recorded.add(entry.getKey() + "/" + libId + "/" + fingerprint))
+                    records.add(new PackageRecord(entry.getKey().getBytes(StandardCharsets.UTF_8), libId, fingerprint, countFingerprintClasses(entry.getValue())));
+            }
+        }
+
+        Collections.sort(records, (a, b) -> compare(a.name, 0, a.name.length, b.name, 0, b.name.length));
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        List<long[]> fingerprints = new ArrayList<>();  // {fingerprint, package}
+        for (int i = 0; i < records.size(); i++) {
+            PackageRecord record = records.get(i);
+            record.nameOffset = names.size();
+            names.write(record.name);
+            if (record.numClasses >= MIN_FINGERPRINT_CLASSES)
+                fingerprints.add(new long[]{record.fingerprint, i});
+        }
+        Collections.sort(fingerprints, (a, b) -> Long.compare(a[0], b[0]));
+
+        BinaryFiles.writeAtomically(catalogFile, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(libIds.size());
+            for (String s: libIds.keySet())
+                out.writeUTF(s);
+            out.writeInt(records.size());
+            for (PackageRecord record: records) {
+                out.writeInt(record.nameOffset);
+                out.writeShort(record.name.length);
+                out.writeInt(record.library);
+                out.writeLong(record.fingerprint);
+            }
+            out.writeInt(fingerprints.size());
+            for (long[] fp: fingerprints) {
+                out.writeLong(fp[0]);
+                out.writeInt((int) fp[1]);
+            }
+            out.writeInt(names.size());
+            names.writeTo(out);
+        });
+        logger.info("Wrote library catalog with " + libIds.size() + " libraries and " + records.size() + " packages to " + catalogFile);
+    }
+
+    private static class PackageRecord {
+        final byte[] name;
+        final int library;
+        final long fingerprint;
+        final int numClasses;
+        int nameOffset;
+
+        PackageRecord(byte[] name, int library, long fingerprint, int numClasses) {
+            this.name = name;
+            this.library = library;
+            this.fingerprint = fingerprint;
+            this.numClasses = numClasses;
+        }
+    }
+
+    private static void collectClasses(ZipInputStream in, Map<String, Set<String>> packageClasses) throws IOException {
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (name.endsWith(".jar")) {
+                // aar: classes.jar and libs/*.jar, the nested stream must not close the outer one
+                collectClasses(new ZipInputStream(new FilterInputStream(in) {
+                    @Override
+                    public void close() {}
+                }), packageClasses);
+            } else if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class")) {
+                int idx = name.lastIndexOf('/');
+                if (idx < 0) continue;  // default package
+
+                String packageName = name.substring(0, idx).replace('/', '.');
+                String className = name.substring(idx + 1, name.length() - ".class".length());
+                packageClasses.computeIfAbsent(packageName, k -> new HashSet<>()).add(className);
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash over the sorted top-level class names of a package. Inner classes are skipped
+     * since anonymous inner classes are partially filtered from app class sets.
+     */
+    public static long fingerprint(Collection<String> clazzNames) {
+        List<String> names = new ArrayList<>();
+        for (String clazzName: clazzNames)
+            if (!clazzName.contains("$")) names.add(clazzName);
+        Collections.sort(names);
+
+        long hash = Fnv1a.OFFSET_BASIS;
+        for (String name: names)
+            hash = Fnv1a.hash(Fnv1a.hash(hash, name), '\n');
+        return hash;
+    }
+
+    public static int countFingerprintClasses(Collection<String> clazzNames) {
+        int count = 0;
+        for (String clazzName: clazzNames)
+            if (!clazzName.contains("$")) count++;
+        return count;
+    }
+
+    private static int compare(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        for (int i = 0; i < Math.min(aLen, bLen); i++) {
+            int cmp = (a[aOff + i] & 0xFF) - (b[bOff + i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return aLen - bLen;
+    }
+
+    /**
+     * Compares the name of a package record with the first {@code length} bytes of a package name
+     */
+    private int compareName(int record, byte[] name, int length) {
+        int offset = packagesOffset + record * PACKAGE_RECORD_SIZE;
+        int nameOffset = namesOffset + buffer.getInt(offset);
+        int nameLength = buffer.getShort(offset + 4) & 0xFFFF;
+
+        for (int i = 0; i < Math.min(nameLength, length); i++) {
+            int cmp = (buffer.get(nameOffset + i) & 0xFF) - (name[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return nameLength - length;
+    }
+
+    private String getLibrary(int record) {
+        return libraries[buffer.getInt(packagesOffset + record * PACKAGE_RECORD_SIZE + 6)];
+    }
+
+    /**
+     * @return  the libraries that contain the package or, if none, its closest parent package (empty if unknown)
+     */
+    public Set<String> lookup(String packageName) {
+        byte[] name = packageName.getBytes(StandardCharsets.UTF_8);
+        for (int length = name.length; length > 0; ) {
+            Set<String> result = lookup(name, length);
+            if (!result.isEmpty())
+                return result;
+
+            // continue with parent package
+            do { length--; } while (length > 0 && name[length] != '.');
+        }
+        return Collections.emptySet();
+    }
+
+    private Set<String> lookup(byte[] name, int length) {
+        // lower bound of the package name
+        int lo = 0, hi = numPackages;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareName(mid, name, length) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        Set<String> result = new TreeSet<>();
+        for (int i = lo; i < numPackages && compareName(i, name, length) == 0; i++)
+            result.add(getLibrary(i));
+        return result;
+    }
+
+    /**
+     * @return  the libraries with a package that has exactly the given class names (empty if unknown)
+     * @see #fingerprint(Collection)
+     */
+    public Set<String> lookupByFingerprint(Collection<String> clazzNames) {
+        if (countFingerprintClasses(clazzNames) < MIN_FINGERPRINT_CLASSES)
+            return Collections.emptySet();
+
+        long fingerprint = fingerprint(clazzNames);
+        int lo = 0, hi = numFingerprints;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getLong(fingerprintsOffset + mid * FINGERPRINT_RECORD_SIZE) < fingerprint)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        Set<String> result = new TreeSet<>();
+        for (int i = lo; i < numFingerprints && buffer.getLong(fingerprintsOffset + i * FINGERPRINT_RECORD_SIZE) == fingerprint; i++)
+            result.add(getLibrary(buffer.getInt(fingerprintsOffset + i * FINGERPRINT_RECORD_SIZE + 8)));
+        return result;
+    }
+
+    /**
+     * Assigns library names to packages, by package name first and by class name fingerprint otherwise
+     * @param packageClasses  package name -> simple class names, e.g. the third-party packages of an app
+     * @return  a mapping from library name to the matched packages
+     */
+    public Map<String, Set<String>> identify(Map<String, Set<String>> packageClasses) {
+        Map<String, Set<String>> result = new TreeMap<>();
+        for (Map.Entry<String, Set<String>> entry: packageClasses.entrySet()) {
+            Set<String> libs = lookup(entry.getKey());
+            if (libs.isEmpty())
+                libs = lookupByFingerprint(entry.getValue());
+
+            for (String lib: libs)
+                result.computeIfAbsent(lib, k -> new TreeSet<>()).add(entry.getKey());
+        }
+        return result;
+    }
+
+    public int getNumberOfLibraries() {
+        return libraries.length;
+    }
+
+    public int getNumberOfPackages() {
+        return numPackages;
+    }
+}
@@ -0,0 +1,63 @@
+package osu.seclab.libscope.library;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.util.strings.Atom;
+import osu.seclab.libscope.Utils.ClassHierarchyPass;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects class fingerprints per package as part of a {@link ClassHierarchyPass}.
+ * Subclasses only define which classes are fingerprinted and how.
+ */
+public abstract class PackageFingerprintCollector implements ClassHierarchyPass.ClassVisitor {
+    // keyed by the (canonical) WALA package atom, null for the default package
+    private final Map<Atom, Set<Long>> packageFingerprints = new HashMap<>();
+
+    /**
+     * @return  false if clazz does not contribute to the fingerprints of its package
+     */
+    protected boolean accepts(IClass clazz) {
+        return true;
+    }
+
+    /**
+     * Adds the fingerprints of clazz to the fingerprints of its package
+     */
+    protected abstract void addFingerprints(IClass clazz, Set<Long> fingerprints);
+
+    /**
+     * @return  an empty collector of the same kind
+     */
+    protected abstract PackageFingerprintCollector newCollector();
+
+    @Override
+    public void visit(IClass clazz) {
+        if (accepts(clazz))
+            addFingerprints(clazz, packageFingerprints.computeIfAbsent(clazz.getName().getPackage(), k -> new HashSet<>()));
+    }
+
+    @Override
+    public ClassHierarchyPass.ClassVisitor fork() {
+        return newCollector();
+    }
+
+    @Override
+    public void join(ClassHierarchyPass.ClassVisitor fork) {
+        for (Map.Entry<Atom, Set<Long>> entry: ((PackageFingerprintCollector) fork).packageFingerprints.entrySet())
+            packageFingerprints.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).addAll(entry.getValue());
+    }
+
+    /**
+     * @return  a mapping from package name (empty for the default package) to the fingerprints of its classes
+     */
+    public Map<String, Set<Long>> getPackageFingerprints() {
+        Map<String, Set<Long>> result = new HashMap<>();
+        for (Map.Entry<Atom, Set<Long>> entry: packageFingerprints.entrySet())
+            result.put(entry.getKey() == null? "" : entry.getKey().toString().replace('/', '.'), entry.getValue());
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package osu.seclab.libscope.library;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.ClassHierarchyPass;
+import osu.seclab.libscope.Utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds the library catalogs from reference jars/aars named {@code <library>-<version>}.
+ * Each reference library is loaded into a class hierarchy once, and a single pass over it feeds
+ * both the {@link StructureIndex} and the {@link VersionCatalog}.
+ */
+public class ReferenceLibraries {
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceLibraries.class);
+
+    interface HierarchyFunction<T> {
+        T apply(IClassHierarchy cha) throws IOException;
+    }
+
+    public static void buildCatalogs(Collection<File> referenceLibs, File libraryCatalogFile, File structureIndexFile, File versionCatalogFile) throws IOException {
+        long startTime = System.currentTimeMillis();
+        StructureIndex.IndexBuilder structureIndex = new StructureIndex.IndexBuilder();
+        VersionCatalog.CatalogBuilder versionCatalog = new VersionCatalog.CatalogBuilder();
+        int numLoaded = 0;
+        for (File lib: referenceLibs) {
+            try {
+                withClassHierarchy(lib, cha -> {
+                    ClassHierarchyPass pass = new ClassHierarchyPass();
+                    StructureIndex.FingerprintCollector fingerprints = new StructureIndex.FingerprintCollector();
+                    pass.register(fingerprints);
+                    // only versioned libraries go into the version catalog
+                    VersionCatalog.ApiFingerprintCollector apiFingerprints = null;
+                    if (VersionCatalog.parseVersion(lib) != null)
+                        pass.register(apiFingerprints = new VersionCatalog.ApiFingerprintCollector());
+                    pass.run(cha, new HashMap<IClass, Boolean>());
+
+                    structureIndex.add(lib, fingerprints.getPackageFingerprints());
+                    if (apiFingerprints != null)
+                        versionCatalog.add(lib, VersionCatalog.getApiFingerprints(apiFingerprints.getPackageFingerprints(), null));
+                    else
+                        logger.debug("No version for reference library " + lib);
+                    return null;
+                });
+                numLoaded++;
+            } catch (ClassHierarchyException | IOException e) {
+                logger.warn("Could not load reference library " + lib + ": " + e.getMessage());
+            }
+        }
+        logger.info("Analyzed " + numLoaded + " of " + referenceLibs.size() + " reference libraries (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+        if (numLoaded == 0)
+            throw new IOException("None of the " + referenceLibs.size() + " reference libraries could be loaded, no catalogs written");
+
+        LibraryCatalog.write(referenceLibs, libraryCatalogFile);
+        structureIndex.write(structureIndexFile);
+        versionCatalog.write(versionCatalogFile);
+    }
+
+    /**
+     * Loads a reference library into a class hierarchy on top of the shared framework classes and applies function to it.
+     * The library is only open during the call (WALA may re-read class files while the hierarchy is in use),
+     * the classes.jar extracted from an aar is deleted afterwards.
+     */
+    static <T> T withClassHierarchy(File lib, HierarchyFunction<T> function) throws IOException, ClassHierarchyException {
+        File jar = lib;
+        boolean isTempJar = FilenameUtils.getExtension(lib.getName()).equalsIgnoreCase("aar");
+        if (isTempJar) {
+            jar = File.createTempFile(FilenameUtils.getBaseName(lib.getName()), ".jar");
+        }
+
+        try {
+            if (isTempJar) {
+                try (ZipFile aar = new ZipFile(lib)) {
+                    ZipEntry classesJar = aar.getEntry("classes.jar");
+                    if (classesJar == null)
+                        throw new IOException("aar without classes.jar");
+                    try (InputStream in = aar.getInputStream(classesJar)) {
+                        Files.copy(in, jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+
+            try (JarFile jarFile = new JarFile(jar)) {
+                // the primordial (framework) loader is supplied by the factory, so the scope only holds the library
+                AnalysisScope scope = AnalysisScope.createJavaAnalysisScope();
+                scope.addToScope(ClassLoaderReference.Application, new JarFileModule(jarFile));
+                return function.apply(ClassHierarchyFactory.make(scope, new FrameworkClassLoaderFactory(scope)));
+            }
+        } finally {
+            if (isTempJar)
+                jar.delete();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package osu.seclab.libscope.library;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.types.ClassLoaderReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.BinaryFiles;
+import osu.seclab.libscope.Utils.Fnv1a;
+import osu.seclab.libscope.Utils.Pair;
+import osu.seclab.libscope.Utils.WalaUtils;
+import osu.seclab.libscope.main.Config;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Obfuscation-resilient matching of app packages against reference libraries.
+ * Each class is reduced to a structural fingerprint that does not depend on package or class names:
+ * its supertype chain and interfaces (framework types by name, app/library types as placeholder),
+ * whether it is an interface/abstract class and its number of declared methods. A package is the set of
+ * its class fingerprints, summarized by a MinHash signature. Reference packages are bucketed by bands of
+ * their signatures (locality-sensitive hashing), so a query only compares against packages that share at
+ * least one band instead of the whole catalog.
+ *
+ * File layout (big endian):
+ *   int magic, int version, int #libraries, { UTF name }*,
+ *   int #packages, { int library, UTF package, int #classes, int minhash[NUM_HASHES] }*
+ */
+public class StructureIndex {
+    private static final Logger logger = LoggerFactory.getLogger(StructureIndex.class);
+
+    private static final int MAGIC = 0x4C535349;  // "LSSI"
+    private static final int VERSION = 1;
+
+    private static final int NUM_HASHES = 64;
+    private static final int NUM_BANDS = 16;
+    private static final int ROWS_PER_BAND = NUM_HASHES / NUM_BANDS;
+
+    // minimum estimated Jaccard similarity of a match
+    public static final double MIN_SIMILARITY = 0.5;
+
+    // packages with fewer classes are too unspecific to be matched by structure
+    public static final int MIN_CLASSES = 3;
+
+    private static final long[] SEEDS = new long[NUM_HASHES];
+    static {
+        long seed = 0x4C696253636F7065L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(seed);
+        }
+    }
+
+    private static final BinaryFiles.LazyFile<StructureIndex> defaultIndex = new BinaryFiles.LazyFile<>(new File(Config.STRUCTURE_INDEX), file -> {
+        StructureIndex index = load(file);
+        if (index != null)
+            logger.info("Loaded structure index with " + index.libraries.length + " libraries and " + index.packageNames.length + " packages");
+        return index;
+    });
+
+    private final String[] libraries;
+    private final int[] packageLibrary;
+    private final String[] packageNames;
+    private final int[][] signatures;
+
+    // band hash -> ids of the reference packages with that band, one table per band
+    private final List<Map<Long, int[]>> bands = new ArrayList<>(NUM_BANDS);
+
+    private StructureIndex(String[] libraries, int[] packageLibrary, String[] packageNames, int[][] signatures) {
+        this.libraries = libraries;
+        this.packageLibrary = packageLibrary;
+        this.packageNames = packageNames;
+        this.signatures = signatures;
+
+        for (int b = 0; b < NUM_BANDS; b++) {
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < signatures.length; i++)
+                buckets.computeIfAbsent(bandHash(signatures[i], b), k -> new ArrayList<>()).add(i);
+
+            Map<Long, int[]> band = new HashMap<>(buckets.size() * 2);
+            for (Map.Entry<Long, List<Integer>> entry: buckets.entrySet()) {
+                int[] ids = new int[entry.getValue().size()];
+                for (int i = 0; i < ids.length; i++)
+                    ids[i] = entry.getValue().get(i);
+                band.put(entry.getKey(), ids);
+            }
+            bands.add(band);
+        }
+    }
+
+    /**
+     * @return  the index or null if the file does not exist
+     */
+    public static StructureIndex load(File indexFile) throws IOException {
+        if (!indexFile.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unsupported structure index " + indexFile);
+
+            String[] libraries = new String[in.readInt()];
+            for (int i = 0; i < libraries.length; i++)
+                libraries[i] = in.readUTF();
+
+            int numPackages = in.readInt();
+            int[] packageLibrary = new int[numPackages];
+            String[] packageNames = new String[numPackages];
+            int[][] signatures = new int[numPackages][NUM_HASHES];
+            for (int i = 0; i < numPackages; i++) {
+                packageLibrary[i] = in.readInt();
+                packageNames[i] = in.readUTF();
+                in.readInt();
+                for (int h = 0; h < NUM_HASHES; h++)
+                    signatures[i][h] = in.readInt();
+            }
+            return new StructureIndex(libraries, packageLibrary, packageNames, signatures);
+        }
+    }
+
+    /**
+     * @return  the process-wide index of {@link Config#STRUCTURE_INDEX} or null if there is none
+     */
+    public static StructureIndex getDefault() throws IOException {
+        return defaultIndex.get();
+    }
+
+    /**
+     * Builds the index from the package fingerprints of reference libraries, see {@link ReferenceLibraries#buildCatalogs}
+     */
+    static class IndexBuilder {
+        private final Map<String, Integer> libIds = new LinkedHashMap<>();
+        private final ByteArrayOutputStream packageBytes = new ByteArrayOutputStream();
+        private final DataOutputStream packages = new DataOutputStream(packageBytes);
+        private int numPackages = 0;
+
+        /**
+         * @param packageFingerprints  see {@link FingerprintCollector#getPackageFingerprints()}
+         */
+        void add(File lib, Map<String, Set<Long>> packageFingerprints) throws IOException {
+            // the library name is the file name without extension and version (see VersionCatalog#parseLibraryFile)
+            String libName = VersionCatalog.parseLibraryFile(lib).first();
+            if (!libIds.containsKey(libName))
+                libIds.put(libName, libIds.size());
+            int libId = libIds.get(libName);
+            for (Map.Entry<String, Set<Long>> entry: packageFingerprints.entrySet()) {
+                if (entry.getValue().size() < MIN_CLASSES)
+                    continue;
+
+                packages.writeInt(libId);
+                packages.writeUTF(entry.getKey());
+                packages.writeInt(entry.getValue().size());
+                for (int h: minHash(entry.getValue()))
+                    packages.writeInt(h);
+                numPackages++;
+            }
+        }
+
+        void write(File indexFile) throws IOException {
+            packages.flush();
+            BinaryFiles.writeAtomically(indexFile, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(libIds.size());
+                for (String s: libIds.keySet())
+                    out.writeUTF(s);
+                out.writeInt(numPackages);
+                packageBytes.writeTo(out);
+            });
+            logger.info("Wrote structure index with " + libIds.size() + " libraries and " + numPackages + " packages to " + indexFile);
+        }
+    }
+
+    /**
+     * Structural fingerprint of a class that is invariant to renaming of app/library packages and classes
+     */
+    public static long fingerprint(IClass clazz) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(clazz.isInterface()? 'i' : clazz.isAbstract()? 'a' : 'c');
+
+        for (IClass superClazz: WalaUtils.getSuperClasses(clazz))
+            sb.append('|').append(isFrameworkClass(superClazz)? superClazz.getName().toString() : "_");
+
+        List<String> interfaces = new ArrayList<>();
+        for (IClass iface: clazz.getDirectInterfaces())
+            interfaces.add(isFrameworkClass(iface)? iface.getName().toString() : "_");
+        Collections.sort(interfaces);
+        sb.append('|').append(interfaces);
+
+        int numMethods = 0;
+        for (IMethod im: clazz.getDeclaredMethods())
+            if (!im.isBridge() && !im.isSynthetic()) numMethods++;
+        sb.append('|').append(numMethods);
+
+        return Fnv1a.hash(sb);
+    }
+
+    private static boolean isFrameworkClass(IClass clazz) {
+        return ClassLoaderReference.Primordial.equals(clazz.getClassLoader().getReference());
+    }
+
+    /**
+     * Collects the structural fingerprints of the classes per package
+     */
+    public static class FingerprintCollector extends PackageFingerprintCollector {
+        @Override
+        protected void addFingerprints(IClass clazz, Set<Long> fingerprints) {
+            fingerprints.add(fingerprint(clazz));
+        }
+
+        @Override
+        protected PackageFingerprintCollector newCollector() {
+            return new FingerprintCollector();
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static int[] minHash(Set<Long> fingerprints) {
+        int[] signature = new int[NUM_HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long fp: fingerprints) {
+            for (int h = 0; h < NUM_HASHES; h++) {
+                int v = (int) (mix(fp ^ SEEDS[h]) >>> 33);
+                if (v < signature[h])
+                    signature[h] = v;
+            }
+        }
+        return signature;
+    }
+
+    private static long bandHash(int[] signature, int band) {
+        long hash = band;
+        for (int r = band * ROWS_PER_BAND; r < (band + 1) * ROWS_PER_BAND; r++)
+            hash = mix(hash * 31 + signature[r]);
+        return hash;
+    }
+
+    private static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int h = 0; h < NUM_HASHES; h++)
+            if (a[h] == b[h]) equal++;
+        return (double) equal / NUM_HASHES;
+    }
+
+    /**
+     * @param fingerprints  the class fingerprints of an app package
+     * @return  the best matching library with its estimated similarity or null if there is no match
+     */
+    public Pair<String, Double> match(Set<Long> fingerprints) {
+        if (fingerprints.size() < MIN_CLASSES)
+            return null;
+
+        int[] signature = minHash(fingerprints);
+        Set<Integer> candidates = new HashSet<>();
+        for (int b = 0; b < NUM_BANDS; b++) {
+            int[] ids = bands.get(b).get(bandHash(signature, b));
+            if (ids != null)
+                for (int id: ids) candidates.add(id);
+        }
+
+        int best = -1;
+        double bestSimilarity = MIN_SIMILARITY;
+        for (int id: candidates) {
+            double sim = similarity(signature, signatures[id]);
+            if (sim > bestSimilarity || (sim == bestSimilarity && best < 0)) {
+                best = id;
+                bestSimilarity = sim;
+            }
+        }
+        return best < 0? null : new Pair<>(libraries[packageLibrary[best]], bestSimilarity);
+    }
+
+    /**
+     * @param packageFingerprints  package name -> class fingerprints, e.g. the third-party packages of an app
+     * @return  a mapping from library name to the matched packages
+     */
+    public Map<String, Set<String>> identify(Map<String, Set<Long>> packageFingerprints) {
+        Map<String, Set<String>> result = new TreeMap<>();
+        for (Map.Entry<String, Set<Long>> entry: packageFingerprints.entrySet()) {
+            Pair<String, Double> match = match(entry.getValue());
+            if (match != null)
+                result.computeIfAbsent(match.first(), k -> new TreeSet<>()).add(entry.getKey());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,324 @@
+package osu.seclab.libscope.library;
+
+import com.github.zafarkhaja.semver.Version;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.BinaryFiles;
+import osu.seclab.libscope.Utils.Fnv1a;
+import osu.seclab.libscope.Utils.Pair;
+import osu.seclab.libscope.Utils.VersionWrapper;
+import osu.seclab.libscope.main.Config;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-version API fingerprints of the reference libraries, used to determine which versions of an identified
+ * library an app includes. The API of a version is the set of hashes of its public classes and their
+ * public/protected methods. Versions of a library are stored in semver order as incremental diffs (removed and
+ * added fingerprints relative to the previous version, the first version is stored in full), and the similarity
+ * to every version is computed in one pass over the diffs without materializing the version sets.
+ *
+ * File layout (big endian):
+ *   int magic, int version, int #libraries,
+ *   { UTF name, int #versions, { UTF version, int #removed, long removed*, int #added, long added* }* }*
+ */
+public class VersionCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(VersionCatalog.class);
+
+    private static final int MAGIC = 0x4C535643;  // "LSVC"
+    private static final int VERSION = 1;
+
+    // reference libraries are named <library>-<version>, e.g. okhttp-3.12.1
+    private static final Pattern LIBRARY_FILE_PATTERN = Pattern.compile("^(.+?)-(\\d[\\w.\\-]*)$");
+
+    private static final BinaryFiles.LazyFile<VersionCatalog> defaultCatalog = new BinaryFiles.LazyFile<>(new File(Config.VERSION_CATALOG), file -> {
+        VersionCatalog catalog = load(file);
+        if (catalog != null)
+            logger.info("Loaded version catalog with " + catalog.libraries.size() + " libraries");
+        return catalog;
+    });
+
+    private static class LibraryVersions {
+        final String[] versions;
+        final long[][] removed;
+        final long[][] added;
+
+        LibraryVersions(String[] versions, long[][] removed, long[][] added) {
+            this.versions = versions;
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+    private final Map<String, LibraryVersions> libraries;
+
+    private VersionCatalog(Map<String, LibraryVersions> libraries) {
+        this.libraries = libraries;
+    }
+
+    /**
+     * @return  library name and version of a reference library file, the version is null if the name has none
+     */
+    public static Pair<String, String> parseLibraryFile(File lib) {
+        String baseName = FilenameUtils.getBaseName(lib.getName());
+        Matcher m = LIBRARY_FILE_PATTERN.matcher(baseName);
+        return m.matches()? new Pair<>(m.group(1), m.group(2)) : new Pair<String, String>(baseName, null);
+    }
+
+    /**
+     * @return  the catalog or null if the file does not exist
+     */
+    public static VersionCatalog load(File catalogFile) throws IOException {
+        if (!catalogFile.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unsupported version catalog " + catalogFile);
+
+            Map<String, LibraryVersions> libraries = new HashMap<>();
+            int numLibraries = in.readInt();
+            for (int i = 0; i < numLibraries; i++) {
+                String name = in.readUTF();
+                int numVersions = in.readInt();
+                String[] versions = new String[numVersions];
+                long[][] removed = new long[numVersions][];
+                long[][] added = new long[numVersions][];
+                for (int v = 0; v < numVersions; v++) {
+                    versions[v] = in.readUTF();
+                    removed[v] = readLongs(in);
+                    added[v] = readLongs(in);
+                }
+                libraries.put(name, new LibraryVersions(versions, removed, added));
+            }
+            return new VersionCatalog(libraries);
+        }
+    }
+
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        long[] result = new long[in.readInt()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = in.readLong();
+        return result;
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value: values)
+            out.writeLong(value);
+    }
+
+    /**
+     * @return  the process-wide catalog of {@link Config#VERSION_CATALOG} or null if there is none
+     */
+    public static VersionCatalog getDefault() throws IOException {
+        return defaultCatalog.get();
+    }
+
+    /**
+     * @return  the semver version of a reference library file or null if its name has no parseable version
+     */
+    static Version parseVersion(File lib) {
+        String version = parseLibraryFile(lib).second();
+        try {
+            return version == null? null : VersionWrapper.valueOf(version);
+        } catch (RuntimeException e) {
+            return null;  // not semver-like
+        }
+    }
+
+    /**
+     * Builds the catalog from the API fingerprints of versioned reference libraries (see {@link #parseLibraryFile(File)}),
+     * see {@link ReferenceLibraries#buildCatalogs}. The fingerprints are kept as sorted arrays until the catalog is written.
+     */
+    static class CatalogBuilder {
+        // library -> version -> (version string, sorted API fingerprints), in semver order
+        private final Map<String, TreeMap<Version, Pair<String, long[]>>> libraries = new TreeMap<>();
+
+        /**
+         * @param lib  a reference library with a parseable version, see {@link #parseVersion(File)}
+         */
+        void add(File lib, Set<Long> apiFingerprints) {
+            Version version = parseVersion(lib);
+
+            long[] fingerprints = new long[apiFingerprints.size()];
+            int i = 0;
+            for (long fp: apiFingerprints)
+                fingerprints[i++] = fp;
+            Arrays.sort(fingerprints);
+
+            Pair<String, String> nameVersion = parseLibraryFile(lib);
+            libraries.computeIfAbsent(nameVersion.first(), k -> new TreeMap<>(Version::compareWithBuildsTo))
+                    .put(version, new Pair<>(nameVersion.second(), fingerprints));
+        }
+
+        void write(File catalogFile) throws IOException {
+            int[] numVersions = new int[1];
+            long[] numFingerprints = new long[1];
+            BinaryFiles.writeAtomically(catalogFile, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(libraries.size());
+
+                for (Map.Entry<String, TreeMap<Version, Pair<String, long[]>>> library: libraries.entrySet()) {
+                    out.writeUTF(library.getKey());
+                    out.writeInt(library.getValue().size());
+                    long[] previous = new long[0];
+                    for (Pair<String, long[]> version: library.getValue().values()) {
+                        long[] removed = difference(previous, version.second());
+                        long[] added = difference(version.second(), previous);
+
+                        out.writeUTF(version.first());
+                        writeLongs(out, removed);
+                        writeLongs(out, added);
+
+                        numFingerprints[0] += removed.length + added.length;
+                        previous = version.second();
+                    }
+                    numVersions[0] += library.getValue().size();
+                }
+            });
+            logger.info("Wrote version catalog with " + libraries.size() + " libraries, " + numVersions[0] + " versions and " + numFingerprints[0] + " fingerprint changes to " + catalogFile);
+        }
+    }
+
+    /**
+     * @return  the values of the sorted array a that are not in the sorted array b, in ascending order
+     */
+    private static long[] difference(long[] a, long[] b) {
+        long[] result = new long[a.length];
+        int n = 0;
+        int j = 0;
+        for (long value: a) {
+            while (j < b.length && b[j] < value)
+                j++;
+            if (j == b.length || b[j] != value)
+                result[n++] = value;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * @return  the API fingerprints of the given packages (all packages if null)
+     */
+    public static Set<Long> getApiFingerprints(Map<String, Set<Long>> packageApiFingerprints, Set<String> packages) {
+        Set<Long> result = new HashSet<>();
+        for (Map.Entry<String, Set<Long>> entry: packageApiFingerprints.entrySet()) {
+            if (packages == null || packages.contains(entry.getKey()))
+                result.addAll(entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Collects the API fingerprints of the public classes and their public/protected methods per package
+     */
+    public static class ApiFingerprintCollector extends PackageFingerprintCollector {
+        @Override
+        protected boolean accepts(IClass clazz) {
+            return clazz.isPublic();
+        }
+
+        @Override
+        protected void addFingerprints(IClass clazz, Set<Long> fingerprints) {
+            // the method hashes continue the class hash, i.e. they are the hashes of <class>.<selector>
+            long clazzHash = Fnv1a.hash(clazz.getName().toString());
+            fingerprints.add(clazzHash);
+            long methodPrefixHash = Fnv1a.hash(clazzHash, '.');
+            for (IMethod im: clazz.getDeclaredMethods()) {
+                if ((im.isPublic() || im.isProtected()) && !im.isBridge() && !im.isSynthetic())
+                    fingerprints.add(Fnv1a.hash(methodPrefixHash, im.getSelector().toString()));
+            }
+        }
+
+        @Override
+        protected PackageFingerprintCollector newCollector() {
+            return new ApiFingerprintCollector();
+        }
+    }
+
+    /**
+     * Versions of a library that match the app best
+     */
+    public static class VersionMatch {
+        public final List<String> versions;
+        public final double similarity;
+        private final String range;
+
+        /**
+         * @param versions  all versions of the library in semver order
+         * @param best  indices of the best matching versions, ascending
+         */
+        VersionMatch(String[] versions, List<Integer> best, double similarity) {
+            this.versions = new ArrayList<>(best.size());
+            for (int v: best)
+                this.versions.add(versions[v]);
+            this.similarity = similarity;
+
+            // tied versions need not be consecutive, only runs of consecutive versions are shown as a range
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < best.size(); i++) {
+                int first = best.get(i);
+                while (i + 1 < best.size() && best.get(i + 1) == best.get(i) + 1)
+                    i++;
+                if (sb.length() > 0)
+                    sb.append(", ");
+                sb.append(versions[first]);
+                if (best.get(i) != first)
+                    sb.append(" - ").append(versions[best.get(i)]);
+            }
+            this.range = sb.toString();
+        }
+
+        /**
+         * @return  e.g. "3.12.0 - 3.12.1", "3.12.1" if a single version matches or "3.10.0, 3.12.0 - 3.12.1"
+         *          if the best versions are not consecutive
+         */
+        public String getRange() {
+            return range;
+        }
+    }
+
+    /**
+     * Scores every version of the library by the Jaccard similarity of its API to the API found in the app.
+     * @return  the versions with the highest similarity (in semver order) or null if the library is unknown
+     */
+    public VersionMatch resolve(String library, Set<Long> apiFingerprints) {
+        LibraryVersions lib = libraries.get(library);
+        if (lib == null || lib.versions.length == 0 || apiFingerprints.isEmpty())
+            return null;
+
+        List<Integer> best = new ArrayList<>();
+        double bestSimilarity = -1;
+
+        // size of the current version's API and its intersection with the app, updated per diff
+        int size = 0;
+        int intersection = 0;
+        for (int v = 0; v < lib.versions.length; v++) {
+            for (long fp: lib.removed[v]) {
+                size--;
+                if (apiFingerprints.contains(fp)) intersection--;
+            }
+            for (long fp: lib.added[v]) {
+                size++;
+                if (apiFingerprints.contains(fp)) intersection++;
+            }
+
+            double similarity = (double) intersection / (size + apiFingerprints.size() - intersection);
+            if (similarity > bestSimilarity) {
+                best.clear();
+                bestSimilarity = similarity;
+            }
+            if (similarity == bestSimilarity)
+                best.add(v);
+        }
+
+        return bestSimilarity > 0? new VersionMatch(lib.versions, best, bestSimilarity) : null;
+    }
+}
@@ -0,0 +1,95 @@
+package osu.seclab.libscope.main;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.ApkArchive;
+import osu.seclab.libscope.Utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyzes multiple apks concurrently on a fixed worker pool.
+ * An apk is only admitted once its estimated heap demand (derived from the uncompressed
+ * size of its dex files) fits into the remaining heap budget. If no analysis is running,
+ * the next apk is always admitted so that oversized apps are processed on their own.
+ */
+public class AnalysisScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisScheduler.class);
+
+    private final ExecutorService pool;
+    private final int numWorkers;
+    private final long heapBudget;
+    private long reservedHeap = 0;
+    private int running = 0;
+
+    private final AtomicInteger failed = new AtomicInteger(0);
+
+    public AnalysisScheduler(int numWorkers) {
+        this(numWorkers, (long) (Runtime.getRuntime().maxMemory() * Config.HEAP_BUDGET_RATIO));
+    }
+
+    public AnalysisScheduler(int numWorkers, long heapBudget) {
+        this.pool = Executors.newFixedThreadPool(numWorkers);
+        this.numWorkers = numWorkers;
+        this.heapBudget = heapBudget;
+        logger.info("Scheduler: " + numWorkers + " workers, heap budget " + Utils.humanReadableByteCount(heapBudget, false));
+    }
+
+    /**
+     * Analyzes all apks and blocks until every analysis has finished
+     * @param apkFiles  the apks to analyze
+     * @return  the number of failed analyses
+     */
+    public int run(List<File> apkFiles) throws InterruptedException {
+        for (final File apkFile: apkFiles) {
+            final long estimate = estimateHeap(apkFile);
+            admit(estimate);
+
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!runTest.analyze(apkFile))
+                            failed.incrementAndGet();
+                    } finally {
+                        release(estimate);
+                    }
+                }
+            });
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        return failed.get();
+    }
+
+    public static long estimateHeap(File apkFile) {
+        // all dex files are loaded, so multi-dex apps need memory for every classesN.dex
+        try (ApkArchive apk = new ApkArchive(apkFile)) {
+            return apk.getSizeOfDexFiles(true) * Config.HEAP_PER_DEX_BYTE;
+        } catch (IOException e) {
+            logger.warn("Could not estimate heap demand of " + apkFile + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private synchronized void admit(long estimate) throws InterruptedException {
+        while (running >= numWorkers || (running > 0 && reservedHeap + estimate > heapBudget))
+            wait();
+
+        reservedHeap += estimate;
+        running++;
+    }
+
+    private synchronized void release(long estimate) {
+        reservedHeap -= estimate;
+        running--;
+        notifyAll();
+    }
+}
@@ -3,4 +3,21 @@ package osu.seclab.libscope.main;
 public class Config {
     public static final String ANDROID_JAR = "lib/android-30.jar";
 
+    // binary class table of the framework, created on first run to skip parsing ANDROID_JAR
+    public static final String FRAMEWORK_SNAPSHOT = "lib/android-30.snapshot";
+
+    // index of known libraries, built from reference jars/aars with --build-catalog
+    public static final String LIBRARY_CATALOG = "lib/libraries.catalog";
+
+    // structural fingerprints of the same reference libraries, to match obfuscated packages
+    public static final String STRUCTURE_INDEX = "lib/libraries.structure";
+
+    // per-version API fingerprints of the reference libraries, stored as diffs between consecutive versions
+    public static final String VERSION_CATALOG = "lib/libraries.versions";
+
+    // estimated analysis heap per byte of uncompressed classes.dex (class hierarchy + package tree)
+    public static final long HEAP_PER_DEX_BYTE = 12;
+
+    // fraction of the max heap that concurrent analyses may reserve
+    public static final double HEAP_BUDGET_RATIO = 0.8;
 }
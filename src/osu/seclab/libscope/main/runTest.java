@@ -2,54 +2,156 @@ package osu.seclab.libscope.main;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.io.FilenameUtils;
 import osu.seclab.libscope.Utils.FileUtility;
 import osu.seclab.libscope.Utils.Utils;
+import osu.seclab.libscope.Utils.ZipDirectory;
 import osu.seclab.libscope.library.Identifier;
+import osu.seclab.libscope.library.ReferenceLibraries;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class runTest {
     public static String apkPath;
     public static String outputDir;
     public static String parseLogPath;
+    public static boolean dexOnly = false;
+    public static boolean exportSignatures = false;
+    // number of threads for the pass over the class hierarchy of a single apk
+    public static int passParallelism = 1;
     private static final Logger logger = LoggerFactory.getLogger(runTest.class);
-    private static String packageName;
 
-    public static void main(String[] args) {
+    /**
+     * args[0] is either a single apk, a directory that is recursively searched for apks,
+     * or a text file listing one apk path per line. All apks are analyzed within this JVM.
+     * The optional args[3] sets the number of concurrent analyses (default: 1).
+     * The flag --dex (at any position) selects the dex-only scanner instead of the WALA class hierarchy.
+     * The flag --signatures adds the sorted signatures of all public app methods to the results.
+     * The flag --parallel visits the class hierarchy of each apk on all cores, divided among the concurrent analyses.
+     * With --build-catalog ref_dir, the library catalogs are built from the jars/aars in ref_dir instead.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals("--build-catalog")) {
+            List<File> referenceLibs = Utils.collectFiles(new File(args[1]), new String[]{"jar", "aar"});
+            Collections.sort(referenceLibs);
+            ReferenceLibraries.buildCatalogs(referenceLibs, new File(Config.LIBRARY_CATALOG), new File(Config.STRUCTURE_INDEX), new File(Config.VERSION_CATALOG));
+            return;
+        }
+
+        List<String> positional = new ArrayList<String>();
+        for (String arg: args) {
+            if (arg.equals("--dex"))
+                dexOnly = true;
+            else if (arg.equals("--signatures"))
+                exportSignatures = true;
+            else if (arg.equals("--parallel"))
+                passParallelism = Runtime.getRuntime().availableProcessors();
+            else
+                positional.add(arg);
+        }
+        args = positional.toArray(new String[0]);
 
         apkPath = args[0];
         outputDir = args[1];
         parseLogPath = args[2];
+        int numWorkers = args.length > 3? Integer.parseInt(args[3]) : 1;
 //        apkPath = "/home/xin/Documents/project/iot_measurement/apks/com.limebike.apk";
 //        outputDir = "/home/xin/Documents/code/python/iot-measure/third_party_library/data/results/";
 //        parseLogPath = "/home/xin/Documents/code/python/iot-measure/third_party_library/data/log/";
 
+        List<File> apkFiles = collectApks(new File(apkPath));
+        if (apkFiles.size() > 1)
+            logger.info("Batch mode: " + apkFiles.size() + " apks to analyze");
+
+        long startTime = System.currentTimeMillis();
+        int failed = 0;
+        if (numWorkers > 1 && apkFiles.size() > 1) {
+            // the workers share the cores, otherwise each apk would start a pass on all of them
+            if (passParallelism > 1) {
+                passParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+                logger.info("Class hierarchy pass: " + passParallelism + " threads per apk");
+            }
+            failed = new AnalysisScheduler(numWorkers).run(apkFiles);
+        } else {
+            for (File apkFile: apkFiles) {
+                if (!analyze(apkFile))
+                    failed++;
+            }
+        }
+
+        if (apkFiles.size() > 1)
+            logger.info("Batch finished: " + (apkFiles.size() - failed) + " succeeded, " + failed + " failed (in " + Utils.millisecondsToFormattedTime(System.currentTimeMillis() - startTime) + ")");
+    }
 
+    /**
+     * Runs the library identification for a single apk. Failures are written to the per-package log.
+     * This method is safe to call concurrently for different apks.
+     * @return true if the analysis completed, false otherwise
+     */
+    public static boolean analyze(File apkFile) {
         try{
-            Identifier.run(new File(apkPath));
+            // the results are written by the identifier, the returned stats are not needed
+            Identifier.run(apkFile, dexOnly, false);
+            return true;
         } catch (Throwable t) {
+            String logFile = runTest.parseLogPath + extractName(apkFile) + ".txt";
             String content;
             Date data = new Date();
             content = "****************************************" + data.toString() + "****************************************";
             logger.error(content);
-            FileUtility.wf(runTest.parseLogPath + getPackageName() + ".txt", content, true);
+            FileUtility.wf(logFile, content, true);
             content = "[FATAL " + (t instanceof Exception? "EXCEPTION" : "ERROR") + "] analysis aborted: " + t.getMessage();
             logger.error(content);
-            FileUtility.wf(runTest.parseLogPath + getPackageName() + ".txt", content, true);
+            FileUtility.wf(logFile, content, true);
             content = Utils.stacktrace2Str(t);
             logger.error(content);
-            FileUtility.wf(runTest.parseLogPath + getPackageName() + ".txt", content, true);
+            FileUtility.wf(logFile, content, true);
+            return false;
         }
-
     }
 
-    public static String getPackageName() {
-        return packageName;
+    // extensions of apk list files, other inputs are only read as list if they are not a zip archive
+    private static final List<String> LIST_FILE_EXTENSIONS = Arrays.asList("txt", "lst", "list");
+
+    /**
+     * Resolves the input argument to the list of apks to analyze
+     * @param input  an apk file, a directory of apks or a file list with one apk path per line
+     * @return  the apk files in processing order
+     */
+    public static List<File> collectApks(File input) throws IOException {
+        if (input.isDirectory()) {
+            List<File> apkFiles = Utils.collectFiles(input, new String[]{"apk"});
+            Collections.sort(apkFiles);
+            return apkFiles;
+        }
+
+        String extension = FilenameUtils.getExtension(input.getName()).toLowerCase(Locale.ROOT);
+        if (extension.equals("apk") || (!LIST_FILE_EXTENSIONS.contains(extension) && ZipDirectory.isZipFile(input)))
+            return Collections.singletonList(input);
+
+        List<File> apkFiles = new ArrayList<File>();
+        for (String line: Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                apkFiles.add(new File(line));
+        }
+        return apkFiles;
     }
 
-    private static void extractName(){
-        String[] paths = apkPath.split("/");
-        packageName = paths[paths.length-1].substring(0, paths[paths.length-1].length()-4);
+    /**
+     * @return  the file name of the apk without its .apk extension (in any case), other names are kept as they are
+     */
+    private static String extractName(File apkFile){
+        String name = apkFile.getName();
+        return FilenameUtils.getExtension(name).equalsIgnoreCase("apk")? FilenameUtils.getBaseName(name) : name;
     }
 }
@@ -6,6 +6,7 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParser;
+import osu.seclab.libscope.Utils.ApkArchive;
 import osu.seclab.libscope.Utils.Utils;
 import pxb.android.axml.AXMLPrinter;
 
@@ -68,6 +69,23 @@ public class ProcessManifest implements Serializable {
         }
     }
 
+    /**
+     * Loads the manifest from an already opened apk
+     */
+    public void loadManifestFile(ApkArchive apk) {
+        InputStream manifest;
+        try {
+            manifest = apk.getManifest();
+        } catch (Exception e) {
+            throw new RuntimeException("Error when looking for manifest in apk: " + e);
+        }
+        if (manifest == null) {
+            logger.error("No manifest file found in apk");
+            throw new RuntimeException("No manifest file found in apk");
+        }
+        loadClassesFromBinaryManifest(manifest);
+    }
+
     public void loadManifestFile(String apkPath) {
         handleAndroidManifestFile(apkPath, new IManifestHandler() {
             @Override
@@ -179,6 +197,13 @@ public class ProcessManifest implements Serializable {
         }
     }
 
+    /**
+     * @return  fully-qualified names of the enabled components and the custom application class
+     */
+    public Set<String> getEntryPointClasses() {
+        return this.entryPointsClasses;
+    }
+
     public String getApplicationName() {
         return this.applicationName;
     }
@@ -0,0 +1,118 @@
+package osu.seclab.libscope.pkg;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tree queries shared by the mutable {@link PackageTree} and its compact {@link FrozenPackageTree} form,
+ * implemented once on top of a minimal node accessor interface so that both cannot drift apart.
+ * @param <N>  the node representation
+ */
+abstract class AbstractPackageTree<N> implements Serializable {
+    private static final long serialVersionUID = -1409522617011466652L;
+
+    abstract N getRoot();
+
+    abstract int getChildCount(N node);
+
+    abstract N getChild(N node, int index);
+
+    abstract String getName(N node);
+
+    abstract int getClazzCount(N node);
+
+    /**
+     * @return  number of nodes in the subtree rooted at node (including itself)
+     */
+    abstract int getSubtreeSize(N node);
+
+    /**
+     * @return  a mapping from package name (empty for the default package) to its simple class names
+     */
+    public abstract Map<String, Set<String>> getPackageClasses();
+
+    public Map<String, Set<String>> getThirdPartyClasses(String appPackageName) {
+        return getThirdPartyClasses(new FirstPartyMatcher(Collections.singleton(appPackageName)));
+    }
+
+    /**
+     * @return  a mapping from package name to class names for all non-default packages not matched by firstParty
+     */
+    public Map<String, Set<String>> getThirdPartyClasses(FirstPartyMatcher firstParty) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry: getPackageClasses().entrySet()) {
+            String packageName = entry.getKey();
+            if (packageName != null && !packageName.equals("")) {
+                if (!firstParty.matches(packageName)) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Top-level package names that are shared by many unrelated libraries
+     */
+    static boolean isCommonNamespace(String name) {
+        return name.equals("com") || name.equals("de") || name.equals("org");
+    }
+
+    /**
+     * Determine root package of the tree (if any). Expands to the longest unique package name.
+     * Note: This method only works for libraries. It's not applicable to apps since there are many different namespaces/libraries involved.
+     * @return  the unique root package name or null otherwise
+     */
+    public String getRootPackage() {
+        N root = getRoot();
+        String rootPackage = "";
+        N curNode = root;
+
+        // This is another heuristic to determine the proper root package in presence of another lib dependency
+        // whose package name differs at depth 1 or at depth 2 if depth 1 is some common namespace
+        if (getChildCount(root) > 1 ||
+                (getChildCount(root) == 1 && isCommonNamespace(getName(getChild(root, 0))))) {
+
+            if (getChildCount(root) == 1) {
+                curNode = getChild(root, 0);
+                rootPackage += getName(curNode);
+            }
+
+            if (getChildCount(curNode) > 0) {
+                int id = 0;
+                int max = 0;
+                // determine largest subtree in terms of packages
+                for (int i = 0; i < getChildCount(curNode); i++) {
+                    int tmp = getSubtreeSize(getChild(curNode, i));
+                    if (tmp > max) {
+                        id = i;
+                        max = tmp;
+                    }
+                }
+
+                curNode = getChild(curNode, id);
+                rootPackage += (rootPackage.isEmpty()? "" : ".") + getName(curNode);
+
+                if (getClazzCount(curNode) > 0)
+                    return rootPackage.isEmpty()? null : rootPackage;
+            }
+        }
+
+        while (getChildCount(curNode) == 1) {
+            curNode = getChild(curNode, 0);
+            rootPackage += (rootPackage.isEmpty()? "" : ".") + getName(curNode);
+
+            if (getClazzCount(curNode) > 0) break;
+        }
+
+        // disallow incomplete root packages of depth 1 that start with common namespace
+        if (isCommonNamespace(rootPackage)) {
+            rootPackage = "";
+        }
+
+        return rootPackage.isEmpty()? null : rootPackage;
+    }
+}
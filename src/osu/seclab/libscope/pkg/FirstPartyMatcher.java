@@ -0,0 +1,144 @@
+package osu.seclab.libscope.pkg;
+
+import osu.seclab.libscope.manifest.ProcessManifest;
+
+import java.util.*;
+
+/**
+ * Decides whether a package belongs to the app itself. The first-party package prefixes are stored in a trie
+ * of package name segments, a package matches if one of the prefixes is the package itself or one of its parents,
+ * e.g. prefix com.foo matches com.foo and com.foo.ui, but not com.foobar.sdk.
+ */
+public class FirstPartyMatcher {
+    // number of leading package segments that identify the app vendor, e.g. com.foo
+    private static final int VENDOR_DEPTH = 2;
+
+    private static class Node {
+        final String name;
+        final List<Node> childs = new ArrayList<Node>(1);
+        boolean isPrefix;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Node rootNode = new Node("");
+    private final Set<String> prefixes = new TreeSet<String>();
+
+    public FirstPartyMatcher(Collection<String> packagePrefixes) {
+        for (String prefix: packagePrefixes)
+            addPrefix(prefix);
+    }
+
+    /**
+     * Builds the matcher from the manifest package name, the package of the custom application class and
+     * the packages of the declared entry point classes (activities, services, receivers, providers).
+     * Since merged manifests also declare library components (e.g. ad activities), an entry point package
+     * is only accepted if it shares the vendor namespace with the app package or the application class.
+     * Framework application classes (e.g. androidx.multidex.MultiDexApplication) are ignored.
+     */
+    public static FirstPartyMatcher of(ProcessManifest manifest) {
+        List<String> prefixes = new ArrayList<String>();
+        List<String> vendors = new ArrayList<String>();
+
+        String packageName = manifest.getPackageName();
+        if (packageName != null && !packageName.isEmpty()) {
+            prefixes.add(packageName);
+            vendors.add(getVendor(packageName));
+        }
+
+        String appClassPackage = getPackage(expand(manifest.getApplicationName(), packageName));
+        if (appClassPackage != null && !appClassPackage.startsWith("android.") && !appClassPackage.startsWith("androidx.")) {
+            prefixes.add(appClassPackage);
+            vendors.add(getVendor(appClassPackage));
+        }
+
+        for (String clazz: manifest.getEntryPointClasses()) {
+            String entryPointPackage = getPackage(clazz);
+            if (entryPointPackage != null && vendors.contains(getVendor(entryPointPackage)))
+                prefixes.add(entryPointPackage);
+        }
+
+        return new FirstPartyMatcher(prefixes);
+    }
+
+    private static String expand(String className, String packageName) {
+        if (className == null || className.isEmpty())
+            return null;
+        if (className.startsWith("."))
+            return packageName + className;
+        return className.contains(".")? className : packageName + "." + className;
+    }
+
+    private static String getPackage(String className) {
+        if (className == null)
+            return null;
+        int idx = className.lastIndexOf('.');
+        return idx > 0? className.substring(0, idx) : null;
+    }
+
+    private static String getVendor(String packageName) {
+        int idx = -1;
+        for (int i = 0; i < VENDOR_DEPTH; i++) {
+            idx = packageName.indexOf('.', idx + 1);
+            if (idx < 0)
+                return packageName;
+        }
+        return packageName.substring(0, idx);
+    }
+
+    private void addPrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty())
+            return;
+
+        Node curNode = rootNode;
+        for (String segment: prefix.split("\\.")) {
+            Node n = getChild(curNode, segment, 0, segment.length());
+            if (n == null) {
+                n = new Node(segment);
+                curNode.childs.add(n);
+            }
+            curNode = n;
+        }
+        curNode.isPrefix = true;
+        prefixes.add(prefix);
+    }
+
+    private static Node getChild(Node node, String s, int start, int end) {
+        for (Node c: node.childs) {
+            if (c.name.length() == end - start && s.regionMatches(start, c.name, 0, end - start))
+                return c;
+        }
+        return null;
+    }
+
+    /**
+     * @param packageName  a fully-qualified package name, e.g. com.foo.ui
+     * @return  true if the package is a first-party package
+     */
+    public boolean matches(String packageName) {
+        if (packageName == null)
+            return false;
+
+        // walk the segments of the package name without creating substrings
+        Node curNode = rootNode;
+        int start = 0;
+        while (start <= packageName.length()) {
+            int end = packageName.indexOf('.', start);
+            if (end < 0) end = packageName.length();
+
+            curNode = getChild(curNode, packageName, start, end);
+            if (curNode == null)
+                return false;
+            if (curNode.isPrefix)
+                return true;
+            start = end + 1;
+        }
+        return false;
+    }
+
+    public Set<String> getPrefixes() {
+        return Collections.unmodifiableSet(prefixes);
+    }
+}
@@ -0,0 +1,158 @@
+package osu.seclab.libscope.pkg;
+
+import osu.seclab.libscope.Utils.BinaryFiles;
+
+import java.util.*;
+
+/**
+ * Compact, immutable form of a {@link PackageTree} for long-term storage.
+ * Nodes are numbered in breadth-first order so that the children of a node are contiguous.
+ * The trie is kept in int arrays (parent, first child, child count, class count, subtree size),
+ * node and class names are indices into one shared string table.
+ */
+public class FrozenPackageTree extends AbstractPackageTree<Integer> {
+    private static final long serialVersionUID = 4117330530498214870L;
+
+    private static final int ROOT = 0;
+
+    private final String[] strings;
+
+    private final int[] name;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final int[] clazzCount;
+    private final int[] subtreeSize;
+
+    // classes of node i are classNames[classStart[i] .. classStart[i+1])
+    private final int[] classStart;
+    private final int[] classNames;
+
+    FrozenPackageTree(PackageTree.Node rootNode, Map<String, Set<String>> packageClasses) {
+        // number nodes in BFS order
+        List<PackageTree.Node> nodes = new ArrayList<PackageTree.Node>();
+        nodes.add(rootNode);
+        for (int i = 0; i < nodes.size(); i++)
+            nodes.addAll(nodes.get(i).childs);
+
+        int n = nodes.size();
+        name = new int[n];
+        parent = new int[n];
+        firstChild = new int[n];
+        childCount = new int[n];
+        clazzCount = new int[n];
+        subtreeSize = new int[n];
+        classStart = new int[n + 1];
+
+        Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        List<Integer> classes = new ArrayList<Integer>();
+        String[] paths = new String[n];
+
+        parent[ROOT] = -1;
+        paths[ROOT] = "";
+        int next = 1;
+        for (int i = 0; i < n; i++) {
+            PackageTree.Node node = nodes.get(i);
+            name[i] = BinaryFiles.stringId(stringIds, node.name);
+            clazzCount[i] = node.clazzCount;
+            subtreeSize[i] = node.subtreeSize;
+            firstChild[i] = next;
+            childCount[i] = node.childs.size();
+            for (int c = 0; c < childCount[i]; c++) {
+                parent[next + c] = i;
+                paths[next + c] = i == ROOT? node.childs.get(c).name : paths[i] + "." + node.childs.get(c).name;
+            }
+            next += childCount[i];
+
+            classStart[i] = classes.size();
+            Set<String> clazzes = packageClasses.get(paths[i]);
+            if (clazzes != null) {
+                for (String clazz: clazzes)
+                    classes.add(BinaryFiles.stringId(stringIds, clazz));
+            }
+        }
+        classStart[n] = classes.size();
+
+        strings = new String[stringIds.size()];
+        for (Map.Entry<String, Integer> entry: stringIds.entrySet())
+            strings[entry.getValue()] = entry.getKey();
+
+        classNames = new int[classes.size()];
+        for (int i = 0; i < classNames.length; i++)
+            classNames[i] = classes.get(i);
+    }
+
+    public int getNumberOfNodes() {
+        return name.length;
+    }
+
+    @Override
+    Integer getRoot() {
+        return ROOT;
+    }
+
+    @Override
+    int getChildCount(Integer node) {
+        return childCount[node];
+    }
+
+    @Override
+    Integer getChild(Integer node, int index) {
+        return firstChild[node] + index;
+    }
+
+    @Override
+    String getName(Integer node) {
+        return strings[name[node]];
+    }
+
+    @Override
+    int getClazzCount(Integer node) {
+        return clazzCount[node];
+    }
+
+    @Override
+    int getSubtreeSize(Integer node) {
+        return subtreeSize[node];
+    }
+
+    /**
+     * @return  full package name of each node (empty for the root), indexed by node id
+     */
+    private String[] getPaths() {
+        String[] paths = new String[name.length];
+        paths[ROOT] = "";
+        for (int i = 1; i < name.length; i++)
+            paths[i] = parent[i] == ROOT? getName(i) : paths[parent[i]] + "." + getName(i);
+        return paths;
+    }
+
+    /**
+     * @see PackageTree#getPackages()
+     */
+    public Map<String, Integer> getPackages() {
+        TreeMap<String, Integer> res = new TreeMap<String, Integer>();
+        String[] paths = getPaths();
+        for (int i = 0; i < name.length; i++) {
+            if (clazzCount[i] > 0)
+                res.put(i == ROOT? getName(ROOT) : paths[i], clazzCount[i]);
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Set<String>> getPackageClasses() {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+        String[] paths = getPaths();
+        for (int i = 0; i < name.length; i++) {
+            if (classStart[i] == classStart[i + 1])
+                continue;
+
+            Set<String> clazzes = new HashSet<String>();
+            for (int c = classStart[i]; c < classStart[i + 1]; c++)
+                clazzes.add(strings[classNames[c]]);
+            result.put(paths[i], clazzes);
+        }
+        return result;
+    }
+}
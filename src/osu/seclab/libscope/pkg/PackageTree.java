@@ -2,19 +2,39 @@ package osu.seclab.libscope.pkg;
 
 import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.util.strings.Atom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import osu.seclab.libscope.Utils.ClassHierarchyPass;
 import osu.seclab.libscope.Utils.PackageUtils;
 import osu.seclab.libscope.Utils.WalaUtils;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class PackageTree implements Serializable {
+public class PackageTree extends AbstractPackageTree<PackageTree.Node> {
     private static final Logger logger = LoggerFactory.getLogger(PackageTree.class);
 
+    // number of children up to which a linear scan is used to find a child
+    private static final int CHILD_INDEX_THRESHOLD = 8;
+
+    private static final Map<Boolean, String[]> drawingCharacters = new HashMap<Boolean, String[]>() {{
+        // unicode box-drawing characters ("└── ",  "├── ", "│   ")
+        put(false, new String[]{"\u2514\u2500\u2500 ", "\u251C\u2500\u2500 ", "\u2502   "});
+
+        // ascii characters
+        put(true , new String[]{"|___ ", "|--- ", "|   "});
+    }};
+
     private Node rootNode;
-    private static Map<String, Set<String>> packageClasses = new HashMap<>(0);
+    // package name -> simple class names, owned by this tree
+    private final Map<String, Set<String>> packageClasses = new ConcurrentHashMap<>();
+
+    // insertion caches: package -> node and interned package/class name segments
+    private transient Map<Atom, Node> atomPackageNodes;
+    private transient Map<String, Node> packageNodes;
+    private transient Map<String, String> names;
 
     public class Node implements Serializable {
         private static final long serialVersionUID = -2117889548993263279L;
@@ -23,10 +43,55 @@ public class PackageTree implements Serializable {
         public int clazzCount;
         public List<Node> childs;
 
+        // number of nodes in the subtree rooted at this node (including itself), kept up to date on insertion
+        int subtreeSize;
+        private Node parent;
+
+        // name -> child, created once a node has many children (e.g. obfuscated a, b, c, ... packages)
+        private Map<String, Node> childIndex;
+
+        // full package name, only set for nodes that contain classes
+        private String packageName;
+
         public Node(String name) {
             this.name = name;
             this.clazzCount = 0;
             this.childs = new ArrayList<Node>();
+            this.subtreeSize = 1;
+        }
+
+        /**
+         * @return  the child with the given name or null if there is none
+         */
+        public Node getChild(String name) {
+            if (childIndex != null)
+                return childIndex.get(name);
+
+            for (Node node: childs) {
+                if (node.name.equals(name))
+                    return node;
+            }
+            return null;
+        }
+
+        /**
+         * Appends a new child, children keep their insertion order
+         */
+        public Node addChild(String name) {
+            Node child = new Node(name);
+            child.parent = this;
+            childs.add(child);
+            for (Node n = this; n != null; n = n.parent)
+                n.subtreeSize++;
+
+            if (childIndex != null) {
+                childIndex.put(name, child);
+            } else if (childs.size() > CHILD_INDEX_THRESHOLD) {
+                childIndex = new HashMap<String, Node>();
+                for (Node node: childs)
+                    childIndex.put(node.name, node);
+            }
+            return child;
         }
 
         public int getNumberOfLeafNodes() {
@@ -47,14 +112,6 @@ public class PackageTree implements Serializable {
             print("", true, includeClazzCount, drawingCharacters.get(false));
         }
 
-        final Map<Boolean, String[]> drawingCharacters = new HashMap<Boolean, String[]>() {{
-            // unicode box-drawing characters ("└── ",  "├── ", "│   ")
-            put(false, new String[]{"\u2514\u2500\u2500 ", "\u251C\u2500\u2500 ", "\u2502   "});
-
-            // ascii characters
-            put(true , new String[]{"|___ ", "|--- ", "|   "});
-        }};
-
         private void print(String prefix, boolean isTail, boolean includeClazzCount, final String[] charset) {
             logger.info(prefix + (isTail ? charset[0] : charset[1]) + name + (includeClazzCount && clazzCount > 0? " (" + clazzCount + ")" : ""));
 
@@ -77,89 +134,213 @@ public class PackageTree implements Serializable {
         }
     }
 
-    private static void recordClass(IClass clazz) {
-        String fullClassName = WalaUtils.simpleName(clazz);
-        List<String> struct = PackageUtils.parsePackage(fullClassName, true);
-        String packageName = String.join(".", struct.subList(0, struct.size()-1));
-        String className = struct.get(struct.size()-1);
-        if (!packageClasses.containsKey(packageName)) {
-            packageClasses.put(packageName, new HashSet<>());
+    /**
+     * Adds a class to the tree and the package->classes index
+     */
+    private void add(IClass clazz) {
+        Node node = getPackageNode(clazz);
+        node.clazzCount++;
+        recordClass(node, intern(clazz.getName().getClassName().toString()));
+    }
+
+    private void add(String fullClassName) {
+        int idx = fullClassName.lastIndexOf('.');
+        Node node = getPackageNode(idx < 0? "" : fullClassName.substring(0, idx));
+        node.clazzCount++;
+        recordClass(node, intern(fullClassName.substring(idx + 1)));
+    }
+
+    private void recordClass(Node packageNode, String className) {
+        packageClasses.computeIfAbsent(packageNode.packageName, k -> ConcurrentHashMap.newKeySet()).add(className);
+    }
+
+    /**
+     * Returns the node of the class' package. The package is looked up by its (canonical) WALA atom,
+     * so the package path is only split and inserted once per package, not once per class.
+     */
+    private Node getPackageNode(IClass clazz) {
+        Atom pkg = clazz.getName().getPackage();
+        if (pkg == null)
+            return rootNode;
+
+        if (atomPackageNodes == null)
+            atomPackageNodes = new HashMap<Atom, Node>();
+
+        Node node = atomPackageNodes.get(pkg);
+        if (node == null) {
+            node = getPackageNode(pkg.toString().replace('/', '.'));
+            atomPackageNodes.put(pkg, node);
         }
-        packageClasses.get(packageName).add(className);
+        return node;
+    }
+
+    private Node getPackageNode(String packageName) {
+        if (packageName.isEmpty())
+            return rootNode;
+
+        if (packageNodes == null)
+            packageNodes = new HashMap<String, Node>();
+
+        Node node = packageNodes.get(packageName);
+        if (node == null) {
+            node = insertPackage(packageName);
+            packageNodes.put(packageName, node);
+        }
+        return node;
+    }
+
+    private Node insertPackage(String packageName) {
+        Node curNode = rootNode;
+        int start = 0;
+        while (start <= packageName.length()) {
+            int end = packageName.indexOf('.', start);
+            if (end < 0) end = packageName.length();
+
+            String segment = intern(packageName.substring(start, end));
+            Node n = curNode.getChild(segment);
+            curNode = n != null? n : curNode.addChild(segment);
+            start = end + 1;
+        }
+        curNode.packageName = packageName;
+        return curNode;
+    }
+
+    private String intern(String name) {
+        if (names == null)
+            names = new HashMap<String, String>();
+
+        String interned = names.get(name);
+        if (interned == null) {
+            names.put(name, name);
+            interned = name;
+        }
+        return interned;
     }
 
     public static PackageTree make(IClassHierarchy cha, boolean appClassesOnly) {
         return make(cha, appClassesOnly, null);
     }
 
-    public Map<String, Set<String>> getThirdPartyClasses(String appPackageName) {
-        Map<String, Set<String>> result = new HashMap<>();
-        for (Map.Entry<String, Set<String>> entry: getPackageClasses().entrySet()) {
-            String packageName = entry.getKey();
-            if (packageName != null && !packageName.equals("")) {
-                if (appPackageName == null || appPackageName.equals("") || !packageName.contains(appPackageName)) {
-                    result.put(entry.getKey(), entry.getValue());
-                }
-            }
-        }
-        return result;
+    /**
+     * Top-level package names below which unrelated libraries live side by side, see {@link #isCommonNamespace(String)}
+     */
+    private static boolean isSharedNamespace(String name) {
+        return isCommonNamespace(name) || name.equals("io") || name.equals("net") || name.equals("android");
     }
 
-    public static PackageTree make(IClassHierarchy cha, boolean appClassesOnly, Set<String> filteredPackages) {
-        PackageTree tree = new PackageTree();
-        for (IClass clazz: cha) {
-            if (!appClassesOnly || (appClassesOnly && WalaUtils.isAppClass(clazz))) {
-                if (filteredPackages == null || !filteredPackages.contains(PackageUtils.getPackageName(clazz))) {
-                    tree.update(clazz);
-                    recordClass(clazz);
-                }
-            }
+    /**
+     * Collapses the third-party packages into library roots, e.g. com.squareup.okhttp3.internal.http -> com.squareup.okhttp3.
+     * Shared top-level namespaces (com, org, de, io, net, android), class-less top-level packages with several sub
+     * packages and second-level packages below a common namespace (com, de, org) are not considered roots on their own:
+     * they are split into their sub packages, and classes placed directly in them are counted under their own name.
+     * Any other top-level package, e.g. okhttp3 or kotlin, is a root with its whole subtree.
+     * Below these, chains of class-less packages with a single sub package are expanded. Each subtree is visited once.
+     * @return  a mapping from library root package to the number of third-party classes in its subtree
+     */
+    public Map<String, Integer> getLibraryRoots(FirstPartyMatcher firstParty) {
+        TreeMap<String, Integer> res = new TreeMap<String, Integer>();
+        for (Node c: rootNode.childs)
+            collectLibraryRoots(c, c.name, 1, firstParty, res);
+        return res;
+    }
+
+    private void collectLibraryRoots(Node n, String path, int depth, FirstPartyMatcher firstParty, Map<String, Integer> res) {
+        boolean isNamespace = depth == 1?
+                isSharedNamespace(n.name) || (!n.hasClasses() && n.childs.size() > 1) :
+                depth == 2 && isCommonNamespace(path.substring(0, path.indexOf('.')));
+        if (isNamespace) {
+            // a single class in e.g. com must not merge all libraries below com into one root
+            if (n.hasClasses() && !firstParty.matches(n.packageName))
+                res.put(path, n.clazzCount);
+            for (Node c: n.childs)
+                collectLibraryRoots(c, path + "." + c.name, depth + 1, firstParty, res);
+            return;
+        }
+
+        while (!n.hasClasses() && n.childs.size() == 1) {
+            n = n.childs.get(0);
+            path += "." + n.name;
         }
-        return tree;
 
+        // count the third-party classes of the subtree
+        int clazzCount = 0;
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        nodes.push(n);
+        while (!nodes.isEmpty()) {
+            Node cur = nodes.pop();
+            if (cur.hasClasses() && !firstParty.matches(cur.packageName))
+                clazzCount += cur.clazzCount;
+            for (Node c: cur.childs)
+                nodes.push(c);
+        }
+
+        if (clazzCount > 0)
+            res.put(path, clazzCount);
     }
 
-    public boolean update(IClass clazz) {
-        List<String> struct = PackageUtils.parsePackage(clazz);
-        return update(struct);
+    public static PackageTree make(IClassHierarchy cha, boolean appClassesOnly, Set<String> filteredPackages) {
+        return make(cha, appClassesOnly, filteredPackages, new HashMap<IClass, Boolean>());
     }
 
-    private PackageTree() {
-        this.rootNode = new Node("Root");
+    /**
+     * @param appClassCache  see {@link WalaUtils#isAppClass(IClass, Map)}
+     */
+    public static PackageTree make(IClassHierarchy cha, boolean appClassesOnly, Set<String> filteredPackages, Map<IClass, Boolean> appClassCache) {
+        Builder builder = new Builder(filteredPackages);
+        if (appClassesOnly) {
+            new ClassHierarchyPass().register(builder).run(cha, appClassCache);
+        } else {
+            for (IClass clazz: cha)
+                builder.visit(clazz);
+        }
+        return builder.getTree();
     }
 
-    private boolean update(List<String> packageStruct) {
-        // update
-        Node curNode = rootNode;
-        if (packageStruct.isEmpty())
-            curNode.clazzCount++;
-        else {
-            for (int i = 0; i < packageStruct.size(); i++) {
-                Node n = matchChilds(curNode, packageStruct.get(i));
-
-                if (n != null) {
-                    curNode = n;
-                } else {
-                    Node newNode = new Node(packageStruct.get(i));
-                    curNode.childs.add(newNode);
-                    curNode = newNode;
-                }
-
-                if (i == packageStruct.size()-1) {
-                    curNode.clazzCount++;
-                }
-            }
+    /**
+     * Builds the tree as part of a {@link ClassHierarchyPass}. Children are ordered by insertion,
+     * so the builder sees all classes in order and is not forked.
+     */
+    public static class Builder implements ClassHierarchyPass.ClassVisitor {
+        private final PackageTree tree = new PackageTree();
+        private final Set<String> filteredPackages;
+
+        /**
+         * @param filteredPackages  classes of these packages are skipped, null for none
+         */
+        public Builder(Set<String> filteredPackages) {
+            this.filteredPackages = filteredPackages;
+        }
+
+        @Override
+        public void visit(IClass clazz) {
+            if (filteredPackages == null || !filteredPackages.contains(PackageUtils.getPackageName(clazz)))
+                tree.add(clazz);
         }
 
+        public PackageTree getTree() {
+            return tree;
+        }
+    }
+
+    /**
+     * Builds the tree from fully-qualified class names, e.g. as provided by the dex-only scanner
+     * @param clazzNames  fully-qualified names of the app classes
+     */
+    public static PackageTree make(Iterable<String> clazzNames) {
+        PackageTree tree = new PackageTree();
+        for (String clazzName: clazzNames)
+            tree.add(clazzName);
+        return tree;
+    }
+
+    public boolean update(IClass clazz) {
+        getPackageNode(clazz).clazzCount++;
         return true;
     }
 
-    private Node matchChilds(Node n, String str) {
-        for (Node node: n.childs) {
-            if (node.name.equals(str))
-                return node;
-        }
-        return null;
+    private PackageTree() {
+        this.rootNode = new Node("Root");
+        this.rootNode.packageName = "";
     }
 
     public void print(boolean includeClazzCount) {
@@ -172,83 +353,83 @@ public class PackageTree implements Serializable {
     }
 
     /**
-     * Determine root package of the tree (if any). Expands to the longest unique package name.
-     * Note: This method only works for libraries. It's not applicable to apps since there are many different namespaces/libraries involved.
-     * @return  the unique root package name or null otherwise
+     * Dump package names that contain at least one class
+     * @return  a mapping from package name to number of included classes
      */
-    public String getRootPackage() {
-        String rootPackage = "";
-        Node curNode = rootNode;
-
-        // This is another heuristic to determine the proper root package in presence of another lib dependency
-        // whose package name differs at depth 1 or at depth 2 if depth 1 is some common namespace
-        if (rootNode.childs.size() > 1 ||
-                (rootNode.childs.size() == 1 && (rootNode.childs.get(0).name.equals("com") ||
-                        rootNode.childs.get(0).name.equals("de") ||
-                        rootNode.childs.get(0).name.equals("org")))) {
+    public Map<String, Integer> getPackages() {
+        TreeMap<String, Integer> res = new TreeMap<String, Integer>();
+        if (rootNode.hasClasses())
+            res.put(rootNode.name, rootNode.clazzCount);
+
+        // iterative DFS, the package name is built in one shared buffer that is truncated to the parent's length
+        StringBuilder path = new StringBuilder();
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        Deque<Integer> parentPathLengths = new ArrayDeque<Integer>();
+        for (Node c: rootNode.childs) {
+            nodes.push(c);
+            parentPathLengths.push(0);
+        }
 
-            if (rootNode.childs.size() == 1) {
-                curNode = rootNode.childs.get(0);
-                rootPackage += curNode.name;
-            }
+        while (!nodes.isEmpty()) {
+            Node n = nodes.pop();
+            int parentPathLength = parentPathLengths.pop();
 
-            int id = 0;
-            int max = 0;
-            // determine largest subtree in terms of packages
-            for (int i = 0; i < curNode.childs.size(); i++) {
-                int tmp = getPackages(curNode.childs.get(i), "", true).size();
-                if (tmp > max) {
-                    id = i;
-                    max = tmp;
-                }
-            }
+            path.setLength(parentPathLength);
+            if (parentPathLength > 0)
+                path.append('.');
+            path.append(n.name);
 
-            curNode = curNode.childs.get(id);
-            rootPackage += (rootPackage.isEmpty()? "" : ".") + curNode.name;
+            if (n.hasClasses())
+                res.put(path.toString(), n.clazzCount);
 
-            if (curNode.hasClasses())
-                return rootPackage.isEmpty()? null : rootPackage;
+            for (Node c: n.childs) {
+                nodes.push(c);
+                parentPathLengths.push(path.length());
+            }
         }
 
-        while (curNode.childs.size() == 1) {
-            curNode = curNode.childs.get(0);
-            rootPackage += (rootPackage.isEmpty()? "" : ".") + curNode.name;
+        return res;
+    }
 
-            if (curNode.hasClasses()) break;
-        }
+    @Override
+    public Map<String, Set<String>> getPackageClasses() {
+        return packageClasses;
+    }
 
-        // disallow incomplete root packages of depth 1 that start with common namespace
-        if (rootPackage.equals("com") || rootPackage.equals("de") || rootPackage.equals("org")) {
-            rootPackage = "";
-        }
+    @Override
+    Node getRoot() {
+        return rootNode;
+    }
 
-        return rootPackage.isEmpty()? null : rootPackage;
+    @Override
+    int getChildCount(Node node) {
+        return node.childs.size();
     }
 
-    private Map<String, Integer> getPackages(Node n, String curPath, boolean dumpAllPackages) {
-        TreeMap<String, Integer> res = new TreeMap<String, Integer>();
+    @Override
+    Node getChild(Node node, int index) {
+        return node.childs.get(index);
+    }
 
-        if (n.hasClasses() || dumpAllPackages)
-            res.put(curPath + n.name, n.clazzCount);
+    @Override
+    String getName(Node node) {
+        return node.name;
+    }
 
-        if (!n.isLeaf()) {
-            for (Node c: n.childs) {
-                res.putAll(getPackages(c, curPath + (n.name.equals("Root")? "" : n.name + "."), dumpAllPackages));
-            }
-        }
+    @Override
+    int getClazzCount(Node node) {
+        return node.clazzCount;
+    }
 
-        return res;
+    @Override
+    int getSubtreeSize(Node node) {
+        return node.subtreeSize;
     }
 
     /**
-     * Dump package names that contain at least one class
-     * @return  a mapping from package name to number of included classes
+     * Creates a compact, array-based copy of this tree for long-term storage of finished results
      */
-    public Map<String, Integer> getPackages() {
-        return getPackages(rootNode, "", false);
-    }
-
-    public Map<String, Set<String>> getPackageClasses() {
-        return packageClasses;
+    public FrozenPackageTree freeze() {
+        return new FrozenPackageTree(rootNode, packageClasses);
     }
 }
@@ -1,5 +1,6 @@
 package osu.seclab.libscope.profile;
 
+import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,6 +8,7 @@ import osu.seclab.libscope.Utils.Utils;
 import osu.seclab.libscope.pkg.PackageTree;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,8 +17,22 @@ public class Profile implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(Profile.class);
 
     public static PackageTree generatePackageTree(IClassHierarchy cha) {
+        return generatePackageTree(cha, new HashMap<IClass, Boolean>());
+    }
+
+    public static PackageTree generatePackageTree(IClassHierarchy cha, Map<IClass, Boolean> appClassCache) {
+        return logPackageTree(PackageTree.make(cha, true, null, appClassCache));
+    }
+
+    public static PackageTree generatePackageTree(Iterable<String> clazzNames) {
+        return logPackageTree(PackageTree.make(clazzNames));
+    }
+
+    /**
+     * Logs a tree that was built elsewhere, e.g. by a {@link PackageTree.Builder}
+     */
+    public static PackageTree logPackageTree(PackageTree tree) {
         logger.info("= PackageTree =");
-        PackageTree tree = PackageTree.make(cha, true);
         tree.print(true);
 
         logger.debug("");
@@ -1,8 +1,11 @@
 package osu.seclab.libscope.stats;
 
 import osu.seclab.libscope.manifest.ProcessManifest;
+import osu.seclab.libscope.pkg.FrozenPackageTree;
 
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 public class AppStats implements Exportable{
@@ -10,6 +13,9 @@ public class AppStats implements Exportable{
     public File appFile;
     public ProcessManifest manifest;
     public boolean isMultiDex;
+    public int numDexFiles;
+    public Map<String, Integer> dexClassCounts = new LinkedHashMap<>();  // dex entry name -> # of class definitions
+    public FrozenPackageTree packageTree;
 
     public AppStats(File appFile) {
         this.appFile = appFile;